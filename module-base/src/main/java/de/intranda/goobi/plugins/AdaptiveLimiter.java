@@ -0,0 +1,154 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Limits the number of requests that are running at the same time. In adaptive mode the limit starts at the minimum and grows by one per round of
+ * successful requests (additive increase) as long as the limit is actually used. It is halved (multiplicative decrease) when the source signals
+ * overload by 429 or 503 responses or timeouts, or when the recent latency rises clearly above the long-term latency. Without adaptive mode the
+ * limit stays at the maximum.
+ */
+@Log4j2
+public class AdaptiveLimiter {
+
+    // weight of the latest measurement in the recent latency
+    private static final double SHORT_LATENCY_WEIGHT = 0.2;
+    // weight of the latest measurement in the long-term latency
+    private static final double LONG_LATENCY_WEIGHT = 0.02;
+    // the recent latency may exceed the long-term latency by this factor before the limit is reduced
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // number of measurements before the latency is taken into account
+    private static final int MIN_SAMPLES = 10;
+    private static final double BACKOFF_FACTOR = 0.5;
+
+    private final String name;
+    @Getter
+    private final int minLimit;
+    @Getter
+    private final int maxLimit;
+    private final boolean adaptive;
+
+    private double limit;
+    private int inFlight;
+    private double shortLatency;
+    private double longLatency;
+    private int samples;
+    private long lastDecrease;
+
+    /**
+     * 
+     * @param name name of the limited requests, used for logging
+     * @param minLimit lowest number of requests running at the same time
+     * @param maxLimit highest number of requests running at the same time
+     * @param adaptive true if the limit shall follow the observed latency and errors, false to always allow maxLimit requests
+     */
+    public AdaptiveLimiter(String name, int minLimit, int maxLimit, boolean adaptive) {
+        this.name = name;
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.adaptive = adaptive;
+        this.limit = adaptive ? this.minLimit : this.maxLimit;
+    }
+
+    /**
+     * wait until another request may be started
+     * 
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * mark a request as finished
+     * 
+     * @param success true if the request succeeded
+     */
+    public synchronized void release(boolean success) {
+        // the limit only grows while it is reached, otherwise the requests say nothing about the capacity of the source
+        if (success && adaptive && inFlight >= getLimit() && limit < maxLimit) {
+            int previousLimit = getLimit();
+            limit = Math.min(limit + 1 / limit, maxLimit);
+            if (getLimit() > previousLimit) {
+                log.debug(name + ": limit increased to " + getLimit());
+            }
+        }
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * report the latency of a request, the limit is reduced if the recent latency rises clearly above the long-term latency
+     * 
+     * @param latencyMillis time until the response arrived
+     */
+    public synchronized void reportLatency(long latencyMillis) {
+        samples++;
+        if (samples == 1) {
+            shortLatency = latencyMillis;
+            longLatency = latencyMillis;
+            return;
+        }
+        shortLatency = (1 - SHORT_LATENCY_WEIGHT) * shortLatency + SHORT_LATENCY_WEIGHT * latencyMillis;
+        longLatency = (1 - LONG_LATENCY_WEIGHT) * longLatency + LONG_LATENCY_WEIGHT * latencyMillis;
+        if (samples >= MIN_SAMPLES && shortLatency > LATENCY_TOLERANCE * Math.max(longLatency, 1) && backOff("rising latency")) {
+            // further measurements must show that the latency is still too high
+            shortLatency = longLatency;
+        }
+    }
+
+    /**
+     * report that the source is overloaded, e.g. because it answered with 429 or 503 or did not answer in time
+     */
+    public synchronized void reportOverload() {
+        backOff("overload");
+    }
+
+    /**
+     * get the current limit
+     * 
+     * @return number of requests that may run at the same time
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    private boolean backOff(String reason) {
+        if (!adaptive) {
+            return false;
+        }
+        // requests that were already running when the limit was reduced report the same overload again, only react once per round trip
+        long now = System.currentTimeMillis();
+        if (now - lastDecrease < Math.max(shortLatency, 100)) {
+            return false;
+        }
+        lastDecrease = now;
+        limit = Math.max(limit * BACKOFF_FACTOR, minLimit);
+        log.debug(name + ": limit reduced to " + getLimit() + " because of " + reason);
+        return true;
+    }
+
+}
@@ -0,0 +1,248 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the entries of a ZIP or TAR archive, which may additionally be gzip compressed, sequentially from a stream. Nothing is buffered beyond the
+ * current entry, so the archive never needs to be stored.
+ */
+public class BundleArchive {
+
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    /**
+     * Handler for one regular file inside of the archive.
+     */
+    public interface EntryHandler {
+        /**
+         * 
+         * @param name name of the entry including its path inside of the archive
+         * @param content content of the entry, ends with the entry and must not be closed
+         * @throws IOException
+         */
+        void handle(String name, InputStream content) throws IOException;
+    }
+
+    private BundleArchive() {
+        // only static methods
+    }
+
+    /**
+     * read all regular files from the archive, the format is detected from the first bytes
+     * 
+     * @param in stream of the archive
+     * @param handler handler that is called for every regular file
+     * @throws IOException if the archive could not be read or is of an unknown format
+     */
+    public static void extract(InputStream in, EntryHandler handler) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 65536);
+        byte[] magic = peek(buffered, 2);
+        if ((magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            buffered = new BufferedInputStream(new GZIPInputStream(buffered, 65536), 65536);
+        }
+        magic = peek(buffered, 4);
+        if (magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+            extractZip(buffered, handler);
+        } else {
+            extractTar(buffered, handler);
+        }
+    }
+
+    private static byte[] peek(BufferedInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.mark(length);
+        int read = in.readNBytes(bytes, 0, length);
+        in.reset();
+        if (read < length) {
+            throw new IOException("The archive is empty or truncated");
+        }
+        return bytes;
+    }
+
+    private static void extractZip(InputStream in, EntryHandler handler) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (!entry.isDirectory()) {
+                handler.handle(entry.getName(), new UnclosableInputStream(zip));
+            }
+            zip.closeEntry();
+        }
+    }
+
+    private static void extractTar(InputStream in, EntryHandler handler) throws IOException {
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        String longName = null;
+        while (true) {
+            if (in.readNBytes(header, 0, TAR_BLOCK_SIZE) < TAR_BLOCK_SIZE) {
+                throw new IOException("The TAR archive is truncated");
+            }
+            if (isZeroBlock(header)) {
+                // end of archive
+                return;
+            }
+            long size = parseTarSize(header);
+            char type = (char) header[156];
+            EntryInputStream content = new EntryInputStream(in, size);
+            switch (type) {
+                case 'L':
+                    // GNU long name of the following entry
+                    longName = readName(content.readAllBytes());
+                    break;
+                case 'x':
+                    // pax extended header, only the path is of interest
+                    for (String line : new String(content.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                        int index = line.indexOf(" path=");
+                        if (index != -1) {
+                            longName = line.substring(index + 6);
+                        }
+                    }
+                    break;
+                case '0':
+                case '\0':
+                    String name = longName != null ? longName : getTarName(header);
+                    longName = null;
+                    handler.handle(name, content);
+                    break;
+                default:
+                    // directories, links and all other entry types are ignored
+                    longName = null;
+            }
+            content.skipRemaining();
+            in.skipNBytes((TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE);
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getTarName(byte[] header) {
+        String name = readName(Arrays.copyOfRange(header, 0, 100));
+        // ustar archives split long names into a prefix and the name
+        String magic = new String(header, 257, 5, StandardCharsets.US_ASCII);
+        if ("ustar".equals(magic)) {
+            String prefix = readName(Arrays.copyOfRange(header, 345, 500));
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String readName(byte[] bytes) {
+        int end = 0;
+        while (end < bytes.length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static long parseTarSize(byte[] header) throws IOException {
+        if ((header[124] & 0x80) != 0) {
+            // base-256 encoding used for entries of 8 GB and more
+            long size = 0;
+            for (int i = 125; i < 136; ++i) {
+                size = (size << 8) | (header[i] & 0xff);
+            }
+            return size;
+        }
+        String octal = new String(header, 124, 12, StandardCharsets.US_ASCII).replace('\0', ' ').trim();
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid size in TAR header: " + octal, e);
+        }
+    }
+
+    /**
+     * Stream that ends with the current TAR entry.
+     */
+    private static class EntryInputStream extends UnclosableInputStream {
+        private long remaining;
+
+        EntryInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b == -1) {
+                throw new IOException("The TAR archive is truncated");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new IOException("The TAR archive is truncated");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        void skipRemaining() throws IOException {
+            in.skipNBytes(remaining);
+            remaining = 0;
+        }
+    }
+
+    /**
+     * Stream that leaves the underlying archive stream open when it is closed.
+     */
+    private static class UnclosableInputStream extends FilterInputStream {
+
+        UnclosableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // the archive stream stays open for the following entries
+        }
+    }
+
+}
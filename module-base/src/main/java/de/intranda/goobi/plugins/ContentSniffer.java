@@ -0,0 +1,282 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Detects the type of a file from its first bytes and maps media types to file extensions. Only the first {@link #SNIFF_LENGTH} bytes are needed,
+ * so the type can be detected on a stream before the rest of it is read.
+ */
+public class ContentSniffer {
+
+    // number of bytes that are needed to detect all known types
+    public static final int SNIFF_LENGTH = 32;
+
+    // types that only describe the container, the Content-Type header may name the actual format, e.g. an EPUB inside a ZIP container
+    private static final Set<String> CONTAINER_TYPES = Set.of("application/zip", "application/xml", "application/gzip");
+
+    // generic subtypes that must not be used as extension
+    private static final Set<String> GENERIC_SUBTYPES = Set.of("binary", "unknown", "download");
+
+    private static final Map<String, String> EXTENSIONS = new HashMap<>();
+
+    // major brand of an ISO base media file (ftyp box) -> media type
+    private static final Map<String, String> FTYP_BRANDS = new HashMap<>();
+
+    static {
+        EXTENSIONS.put("application/pdf", ".pdf");
+        EXTENSIONS.put("image/jpeg", ".jpg");
+        EXTENSIONS.put("image/jpg", ".jpg");
+        EXTENSIONS.put("image/pjpeg", ".jpg");
+        EXTENSIONS.put("image/png", ".png");
+        EXTENSIONS.put("image/gif", ".gif");
+        EXTENSIONS.put("image/tiff", ".tif");
+        EXTENSIONS.put("image/tif", ".tif");
+        EXTENSIONS.put("image/jp2", ".jp2");
+        EXTENSIONS.put("image/x-jp2-codestream", ".j2k");
+        EXTENSIONS.put("image/webp", ".webp");
+        EXTENSIONS.put("image/bmp", ".bmp");
+        EXTENSIONS.put("image/svg+xml", ".svg");
+        EXTENSIONS.put("image/vnd.adobe.photoshop", ".psd");
+        EXTENSIONS.put("image/heic", ".heic");
+        EXTENSIONS.put("image/avif", ".avif");
+        EXTENSIONS.put("audio/mpeg", ".mp3");
+        EXTENSIONS.put("audio/mp4", ".m4a");
+        EXTENSIONS.put("audio/wav", ".wav");
+        EXTENSIONS.put("audio/wave", ".wav");
+        EXTENSIONS.put("audio/x-wav", ".wav");
+        EXTENSIONS.put("audio/ogg", ".ogg");
+        EXTENSIONS.put("audio/flac", ".flac");
+        EXTENSIONS.put("video/mp4", ".mp4");
+        EXTENSIONS.put("video/quicktime", ".mov");
+        EXTENSIONS.put("video/x-msvideo", ".avi");
+        EXTENSIONS.put("video/x-matroska", ".mkv");
+        EXTENSIONS.put("video/webm", ".webm");
+        EXTENSIONS.put("video/3gpp", ".3gp");
+        EXTENSIONS.put("application/zip", ".zip");
+        EXTENSIONS.put("application/gzip", ".gz");
+        EXTENSIONS.put("application/x-gzip", ".gz");
+        EXTENSIONS.put("application/x-tar", ".tar");
+        EXTENSIONS.put("application/x-7z-compressed", ".7z");
+        EXTENSIONS.put("application/epub+zip", ".epub");
+        EXTENSIONS.put("application/xml", ".xml");
+        EXTENSIONS.put("text/xml", ".xml");
+        EXTENSIONS.put("application/json", ".json");
+        EXTENSIONS.put("text/plain", ".txt");
+        EXTENSIONS.put("text/html", ".html");
+        EXTENSIONS.put("text/csv", ".csv");
+        EXTENSIONS.put("application/msword", ".doc");
+        EXTENSIONS.put("application/vnd.ms-excel", ".xls");
+        EXTENSIONS.put("application/vnd.openxmlformats-officedocument.wordprocessingml.document", ".docx");
+        EXTENSIONS.put("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", ".xlsx");
+        EXTENSIONS.put("application/vnd.oasis.opendocument.text", ".odt");
+
+        FTYP_BRANDS.put("isom", "video/mp4");
+        FTYP_BRANDS.put("iso2", "video/mp4");
+        FTYP_BRANDS.put("mp41", "video/mp4");
+        FTYP_BRANDS.put("mp42", "video/mp4");
+        FTYP_BRANDS.put("avc1", "video/mp4");
+        FTYP_BRANDS.put("qt  ", "video/quicktime");
+        FTYP_BRANDS.put("M4A ", "audio/mp4");
+        FTYP_BRANDS.put("heic", "image/heic");
+        FTYP_BRANDS.put("heix", "image/heic");
+        FTYP_BRANDS.put("mif1", "image/heic");
+        FTYP_BRANDS.put("avif", "image/avif");
+        FTYP_BRANDS.put("3gp4", "video/3gpp");
+        FTYP_BRANDS.put("3gp5", "video/3gpp");
+        FTYP_BRANDS.put("3gp6", "video/3gpp");
+    }
+
+    private ContentSniffer() {
+    }
+
+    /**
+     * read the first bytes of a stream without consuming them
+     * 
+     * @param in stream that supports mark and reset
+     * @return up to {@link #SNIFF_LENGTH} bytes, fewer if the stream is shorter
+     * @throws IOException
+     */
+    public static byte[] peek(InputStream in) throws IOException {
+        in.mark(SNIFF_LENGTH);
+        byte[] head = in.readNBytes(SNIFF_LENGTH);
+        in.reset();
+        return head;
+    }
+
+    /**
+     * choose the extension of a file, the detected type is preferred over the Content-Type header unless it only names the container
+     * 
+     * @param head first bytes of the file
+     * @param contentType value of the Content-Type header, may be null
+     * @return the extension including the leading dot, or an empty string if the type is unknown
+     */
+    public static String getExtension(byte[] head, String contentType) {
+        String detectedType = detect(head);
+        String declaredType = getMediaType(contentType);
+        if (detectedType != null && !(CONTAINER_TYPES.contains(detectedType) && EXTENSIONS.containsKey(declaredType))) {
+            return EXTENSIONS.get(detectedType);
+        }
+        return getExtension(declaredType);
+    }
+
+    /**
+     * get the extension of a media type
+     * 
+     * @param mediaType media type without parameters, may be null
+     * @return the extension including the leading dot, or an empty string if the type is unknown or too generic
+     */
+    public static String getExtension(String mediaType) {
+        if (StringUtils.isBlank(mediaType)) {
+            return "";
+        }
+        String extension = EXTENSIONS.get(mediaType);
+        if (extension != null) {
+            return extension;
+        }
+        // unknown types are only used if their subtype looks like an extension, unlike e.g. octet-stream or vnd.ms-powerpoint
+        String subtype = mediaType.substring(mediaType.indexOf('/') + 1);
+        if (subtype.matches("[a-z0-9]{1,5}") && !GENERIC_SUBTYPES.contains(subtype)) {
+            return "." + subtype;
+        }
+        return "";
+    }
+
+    /**
+     * detect the type of a file from its first bytes
+     * 
+     * @param head first bytes of the file
+     * @return the media type, or null if it is unknown
+     */
+    public static String detect(byte[] head) {
+        if (startsWith(head, 0, "%PDF-")) {
+            return "application/pdf";
+        }
+        if (startsWith(head, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (startsWith(head, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(head, 0, "GIF87a") || startsWith(head, 0, "GIF89a")) {
+            return "image/gif";
+        }
+        if (startsWith(head, 0, 'I', 'I', 0x2A, 0x00) || startsWith(head, 0, 'M', 'M', 0x00, 0x2A)) {
+            return "image/tiff";
+        }
+        if (startsWith(head, 0, 0x00, 0x00, 0x00, 0x0C, 'j', 'P', ' ', ' ', 0x0D, 0x0A, 0x87, 0x0A)) {
+            return "image/jp2";
+        }
+        if (startsWith(head, 0, 0xFF, 0x4F, 0xFF, 0x51)) {
+            return "image/x-jp2-codestream";
+        }
+        if (startsWith(head, 0, "8BPS")) {
+            return "image/vnd.adobe.photoshop";
+        }
+        if (startsWith(head, 0, "RIFF")) {
+            if (startsWith(head, 8, "WEBP")) {
+                return "image/webp";
+            }
+            if (startsWith(head, 8, "WAVE")) {
+                return "audio/wav";
+            }
+            if (startsWith(head, 8, "AVI ")) {
+                return "video/x-msvideo";
+            }
+            return null;
+        }
+        if (startsWith(head, 4, "ftyp")) {
+            // the same container holds videos, audio and images, only known brands are trusted
+            return head.length < 12 ? null : FTYP_BRANDS.get(new String(head, 8, 4, StandardCharsets.US_ASCII));
+        }
+        if (startsWith(head, 0, "ID3")) {
+            return "audio/mpeg";
+        }
+        if (startsWith(head, 0, "OggS")) {
+            return "audio/ogg";
+        }
+        if (startsWith(head, 0, "fLaC")) {
+            return "audio/flac";
+        }
+        if (startsWith(head, 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+            return "video/x-matroska";
+        }
+        if (startsWith(head, 0, 'P', 'K', 0x03, 0x04)) {
+            return "application/zip";
+        }
+        if (startsWith(head, 0, 0x1F, 0x8B)) {
+            return "application/gzip";
+        }
+        if (startsWith(head, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)) {
+            return "application/x-7z-compressed";
+        }
+        if (startsWith(head, 0, "<?xml") || startsWith(head, 0, 0xEF, 0xBB, 0xBF, '<', '?', 'x', 'm', 'l')) {
+            return "application/xml";
+        }
+        return null;
+    }
+
+    /**
+     * get the media type of a Content-Type header value, i.e. without parameters and in lower case
+     */
+    private static String getMediaType(String contentType) {
+        if (StringUtils.isBlank(contentType)) {
+            return null;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mediaType = (semicolon == -1 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+        return mediaType.contains("/") ? mediaType : null;
+    }
+
+    private static boolean startsWith(byte[] head, int offset, String signature) {
+        byte[] bytes = signature.getBytes(StandardCharsets.US_ASCII);
+        if (head.length < offset + bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; ++i) {
+            if (head[offset + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] head, int offset, int... signature) {
+        if (head.length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; ++i) {
+            if ((head[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import de.sub.goobi.persistence.managers.MySQLHelper;
+
+/**
+ * Coordinator that keeps every lease as a row in a table of the Goobi database. The table is created on first use.
+ */
+public class DatabaseCoordinator implements DownloadCoordinator {
+
+    private static final String TABLE_NAME = "plugin_download_and_verify_assets_lease";
+
+    /**
+     * 
+     * @throws IOException if the table could not be created
+     */
+    public DatabaseCoordinator() throws IOException {
+        String sql = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME
+                + " (lease_key VARCHAR(255) NOT NULL PRIMARY KEY, owner VARCHAR(255) NOT NULL, expires BIGINT NOT NULL)";
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to create the table " + TABLE_NAME, e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(String key, String owner, long durationMillis) throws IOException {
+        long now = System.currentTimeMillis();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            // take over the row if it is our own lease or if it is expired
+            String update = "UPDATE " + TABLE_NAME + " SET owner = ?, expires = ? WHERE lease_key = ? AND (owner = ? OR expires < ?)";
+            try (PreparedStatement statement = connection.prepareStatement(update)) {
+                statement.setString(1, owner);
+                statement.setLong(2, now + durationMillis);
+                statement.setString(3, key);
+                statement.setString(4, owner);
+                statement.setLong(5, now);
+                if (statement.executeUpdate() > 0) {
+                    return true;
+                }
+            }
+            // otherwise the lease can only be acquired if there is no row yet
+            String insert = "INSERT IGNORE INTO " + TABLE_NAME + " (lease_key, owner, expires) VALUES (?, ?, ?)";
+            try (PreparedStatement statement = connection.prepareStatement(insert)) {
+                statement.setString(1, key);
+                statement.setString(2, owner);
+                statement.setLong(3, now + durationMillis);
+                return statement.executeUpdate() > 0;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to acquire the lease " + key, e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    @Override
+    public boolean renew(String key, String owner, long durationMillis) throws IOException {
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            // only the row of the own lease is updated, a missing row is not inserted again
+            String update = "UPDATE " + TABLE_NAME + " SET expires = ? WHERE lease_key = ? AND owner = ?";
+            try (PreparedStatement statement = connection.prepareStatement(update)) {
+                statement.setLong(1, System.currentTimeMillis() + durationMillis);
+                statement.setString(2, key);
+                statement.setString(3, owner);
+                return statement.executeUpdate() > 0;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to renew the lease " + key, e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    @Override
+    public void release(String key, String owner) throws IOException {
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE lease_key = ? AND owner = ?")) {
+                statement.setString(1, key);
+                statement.setString(2, owner);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to release the lease " + key, e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    private void closeConnection(Connection connection) throws IOException {
+        if (connection != null) {
+            try {
+                MySQLHelper.closeConnection(connection);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+}
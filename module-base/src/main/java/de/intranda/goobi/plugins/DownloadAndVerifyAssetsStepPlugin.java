@@ -19,22 +19,38 @@
 
 package de.intranda.goobi.plugins;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.math.BigInteger;
-import java.nio.file.Files;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
@@ -42,6 +58,9 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
@@ -49,7 +68,6 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
 import org.goobi.beans.GoobiProperty;
 import org.goobi.beans.Process;
 import org.goobi.beans.Processproperty;
@@ -60,14 +78,17 @@ import org.goobi.production.enums.PluginReturnValue;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.enums.StepReturnValue;
 import org.goobi.production.plugin.interfaces.IStepPluginVersion2;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.Helper;
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.VariableReplacer;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.SwapException;
+import de.sub.goobi.persistence.managers.PropertyManager;
 import io.goobi.workflow.api.connection.HttpUtils;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -93,7 +114,8 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
     private transient VariableReplacer replacer;
 
     private String returnPath;
-    private List<String> errorsList = new ArrayList<>();
+    // errors are added by all download threads and read while callbacks are generated
+    private List<String> errorsList = new CopyOnWriteArrayList<>();
 
     // <fileNameProperty>
     private transient List<FileNameProperty> fileNameProperties = new ArrayList<>();
@@ -115,7 +137,61 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
 
     private String downloadUrl;
 
+    // all configured download url templates, the first one is the primary url
+    private transient MirrorPool mirrorPool;
+
+    // files of at least this size are downloaded in parallel segments, 0 disables the segmented download
+    private long segmentedDownloadMinimumSize;
+    // number of segments that are downloaded in parallel
+    private int segmentedDownloadSegments;
+
+    // <coordination>, no coordination between several nodes if null
+    private transient SubnodeConfiguration coordinationConfig;
+    private transient DownloadCoordination coordination;
+
+    // progress of the current run, other components can look it up with DownloadProgress.getProgress(processId) while the files are downloaded
+    private transient DownloadProgress progress;
+    // seconds between two progress messages in the journal, no progress messages if 0
+    private long progressInterval;
+
+    // number of files downloaded at the same time
+    private transient AdaptiveLimiter downloadLimiter;
+    // slots of the download requests, they take the coordination of the current run into account
+    private transient DownloadSlots downloadSlots;
+    private transient RequestConfig downloadRequestConfig;
+    // number of callbacks sent at the same time
+    private transient AdaptiveLimiter callbackLimiter;
+    private transient RequestConfig callbackRequestConfig;
+
+    // value of the Accept-Encoding header of the download requests
+    private String acceptEncoding;
+
+    // url template of the bundle endpoint, files are downloaded one by one if blank
+    private String bundleUrl;
+    // maximum number of files per bundle
+    private int bundleMaxFiles;
+
+    // name of the process property that keeps the status of every verified file, no status is written if blank
+    private String statusPropertyName;
+    // FILEID -> already existing status property
+    private Map<String, Processproperty> statusPropertyMap = new HashMap<>();
+    // FILEID -> status of files verified during this run, saved at the end of the run
+    private Map<String, JSONObject> verifiedStatusMap = new ConcurrentHashMap<>();
+
+    // additional checksum algorithms of the fixity manifests, no manifests are written if empty
+    private List<String> manifestAlgorithms = new ArrayList<>();
+    // name of the manifest files relative to the target folder, may contain {ALGORITHM} and {FOLDER}
+    private String manifestFileName;
+    // format of one line in the manifests, contains {CHECKSUM} and {FILE}
+    private String manifestFormat;
+    // path -> checksums of all files that are verified and shall be listed in the manifests
+    private transient Map<Path, Map<String, String>> manifestEntries = new ConcurrentHashMap<>();
+
+    private static final String PART_FILE_SUFFIX = ".part";
+
     private static Pattern filenamePattern = Pattern.compile(".*filename=\\\"(.*)\\\".*");
+    // extensions taken from the file name sent by the server, anything else is detected from the content
+    private static Pattern extensionPattern = Pattern.compile("\\.[A-Za-z0-9]{1,5}");
 
     @Override
     public void initialize(Step step, String returnPath) {
@@ -138,11 +214,62 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
         SubnodeConfiguration config = ConfigPlugins.getProjectAndStepConfig(title, step);
 
         maxTryTimes = config.getInt("maxTryTimes", 1);
-        // get download url from config
-        downloadUrl = config.getString("downloadUrl");
-        // replace variables in download url
-        downloadUrl = replacer.replace(downloadUrl);
+        // get download urls from config, the first one is the primary url and all further ones are mirrors
+        List<String> downloadUrls = new ArrayList<>();
+        for (String url : config.getStringArray("downloadUrl")) {
+            // replace variables in download url
+            downloadUrls.add(replacer.replace(url.trim()));
+        }
+        downloadUrl = downloadUrls.isEmpty() ? "" : downloadUrls.get(0);
+        mirrorPool = new MirrorPool(downloadUrls, config.getLong("mirrorCooldown", 60) * 1000);
+        // segments are written directly into a local file, which is not possible with S3
+        if (!ConfigurationHelper.getInstance().useS3()) {
+            segmentedDownloadMinimumSize = config.getLong("segmentedDownload/@minimumSize", 0) * 1024 * 1024;
+        }
+        segmentedDownloadSegments = Math.max(config.getInt("segmentedDownload/@segments", 4), 1);
+        if (segmentedDownloadMinimumSize > 0 && config.getInt("parallelDownloads/@max", 1) < segmentedDownloadSegments) {
+            log.warn("parallelDownloads/@max is smaller than segmentedDownload/@segments, segmented downloads open more connections to the source than "
+                    + "the parallel downloads");
+        }
+        // the list delimiter splits the configured value into its single encodings
+        String[] encodings = config.getStringArray("acceptEncoding");
+        acceptEncoding = encodings.length == 0 ? "gzip, deflate" : StringUtils.join(StringUtils.stripAll(encodings), ", ");
+        bundleUrl = config.getString("bundleUrl", "").trim();
+        if (StringUtils.isNotBlank(bundleUrl)) {
+            bundleUrl = replacer.replace(bundleUrl);
+        }
+        bundleMaxFiles = Math.max(config.getInt("bundleUrl/@maxFiles", 100), 1);
+        if (!config.configurationsAt("coordination").isEmpty()) {
+            coordinationConfig = config.configurationAt("coordination");
+        }
         authenticationToken = config.getString("authentication");
+        statusPropertyName = config.getString("statusProperty", "").trim();
+        progressInterval = config.getLong("progressInterval", 0);
+        if (!config.configurationsAt("manifest").isEmpty()) {
+            // the list delimiter splits the configured value at commas, further algorithms may be separated by spaces
+            for (String algorithms : config.getStringArray("manifest/@algorithms")) {
+                for (String algorithm : StringUtils.split(algorithms.toLowerCase())) {
+                    if (MultiDigest.isSupported(algorithm)) {
+                        manifestAlgorithms.add(algorithm);
+                    } else {
+                        logError("Unsupported checksum algorithm for the manifest: " + algorithm);
+                    }
+                }
+            }
+            if (manifestAlgorithms.isEmpty()) {
+                manifestAlgorithms.add(MultiDigest.SHA256);
+            }
+            manifestFileName = config.getString("manifest/@fileName", "../manifest-{FOLDER}-{ALGORITHM}.txt");
+            manifestFormat = config.getString("manifest/@format", "{CHECKSUM}  {FILE}");
+        }
+        // without configuration files are downloaded one after another as before
+        int maxDownloads = config.getInt("parallelDownloads/@max", 1);
+        downloadLimiter = new AdaptiveLimiter("parallel downloads", config.getInt("parallelDownloads/@min", 1), maxDownloads,
+                config.getBoolean("parallelDownloads/@adaptive", false));
+        downloadRequestConfig = createRequestConfig(config.getInt("parallelDownloads/@timeout", 0));
+        callbackLimiter = new AdaptiveLimiter("parallel callbacks", config.getInt("parallelCallbacks/@min", 1),
+                config.getInt("parallelCallbacks/@max", maxDownloads), config.getBoolean("parallelCallbacks/@adaptive", false));
+        callbackRequestConfig = createRequestConfig(config.getInt("parallelCallbacks/@timeout", 0));
         // <fileNameProperty>
         List<HierarchicalConfiguration> fileNamePropertyConfigs = config.configurationsAt("fileNameProperty");
         for (HierarchicalConfiguration fileNameConfig : fileNamePropertyConfigs) {
@@ -239,10 +366,36 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
         // your logic goes here
         prepareUrlHashAndFolderMaps();
 
-        for (int i = 0; i < maxTryTimes; ++i) {
-            urlHashMap = processAllFiles();
+        progress = new DownloadProgress(urlHashMap.size());
+        ScheduledExecutorService progressReporter = startProgressReporter();
+
+        try {
+            coordination = createCoordination();
+        } catch (IOException e) {
+            logError("Failed to set up the coordination with other nodes: " + e.getMessage());
+            stopProgressReporter(progressReporter);
+            return PluginReturnValue.ERROR;
+        }
+        downloadSlots = new DownloadSlots(downloadLimiter, coordination);
+        progress.register(process.getId());
+
+        try {
+            for (int i = 0; i < maxTryTimes; ++i) {
+                urlHashMap = processAllFiles();
+            }
+        } finally {
+            // the registry is static, a progress left in it would outlive the step
+            progress.unregister(process.getId());
+            if (coordination != null) {
+                coordination.close();
+                coordination = null;
+            }
+            stopProgressReporter(progressReporter);
         }
 
+        saveStatusProperties();
+        writeManifests();
+
         boolean successful = urlHashMap.isEmpty();
 
         if (!successful) {
@@ -256,6 +409,69 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
         return successful ? PluginReturnValue.FINISH : PluginReturnValue.ERROR;
     }
 
+    /**
+     * start writing the progress into the journal at the configured interval
+     * 
+     * @return the executor that writes the progress, or null if no interval is configured
+     */
+    private ScheduledExecutorService startProgressReporter() {
+        if (progressInterval <= 0) {
+            return null;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "download-progress-" + process.getId());
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> logMessage(LogType.INFO, "Download progress: " + progress.getSnapshot()), progressInterval,
+                progressInterval, TimeUnit.SECONDS);
+        return reporter;
+    }
+
+    /**
+     * stop writing the progress into the journal, the current progress is logged a last time
+     * 
+     * @param reporter executor that writes the progress, may be null
+     */
+    private void stopProgressReporter(ScheduledExecutorService reporter) {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            logMessage(LogType.INFO, "Download finished: " + progress.getSnapshot());
+        }
+    }
+
+    /**
+     * create the coordination with other nodes according to the configured backend
+     * 
+     * @return the coordination, or null if none is configured
+     * @throws IOException if the backend could not be set up
+     */
+    private DownloadCoordination createCoordination() throws IOException {
+        if (coordinationConfig == null) {
+            return null;
+        }
+        String type = coordinationConfig.getString("@type", "filesystem");
+        DownloadCoordinator coordinator;
+        switch (type.toLowerCase()) {
+            case "database":
+                coordinator = new DatabaseCoordinator();
+                break;
+            case "filesystem":
+                String folder = coordinationConfig.getString("@folder", "");
+                if (StringUtils.isBlank(folder)) {
+                    throw new IOException("No folder configured for the lock files");
+                }
+                coordinator = new FileLockCoordinator(Paths.get(folder));
+                break;
+            default:
+                throw new IOException("Unknown coordination type: " + type);
+        }
+        long leaseMillis = coordinationConfig.getLong("@leaseDuration", 300) * 1000;
+        int maxConcurrentDownloads = coordinationConfig.getInt("@maxConcurrentDownloads", 0);
+        long waitMillis = coordinationConfig.getLong("@waitTimeout", 3600) * 1000;
+        return new DownloadCoordination(coordinator, leaseMillis, maxConcurrentDownloads, waitMillis);
+    }
+
     /**
      * prepare the private fields urlHashMap & urlFolderMap
      */
@@ -318,7 +534,8 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
     }
 
     /**
-     * prepare a list between the name of @urlProperty and the list of values of all process properties bearing that name
+     * prepare a list between the name of @urlProperty and the list of values of all process properties bearing that name, the status properties are
+     * collected into the private field statusPropertyMap during the same pass
      * 
      * @return a map between the name of @urlProperty and the list of values of all process properties bearing that name
      */
@@ -328,7 +545,15 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
         for (GoobiProperty property : properties) {
             String key = property.getTitel();
             String value = property.getWert();
-            if (StringUtils.isNotBlank(value)) {
+            if (StringUtils.isBlank(value)) {
+                continue;
+            }
+            if (StringUtils.isNotBlank(statusPropertyName) && statusPropertyName.equals(key) && property instanceof Processproperty statusProperty) {
+                String fileId = parseStatus(value).optString("fileId");
+                if (StringUtils.isNotBlank(fileId)) {
+                    statusPropertyMap.put(fileId, statusProperty);
+                }
+            } else {
                 propertiesMap.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
             }
         }
@@ -336,6 +561,238 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
         return propertiesMap;
     }
 
+    /**
+     * parse the value of a status property
+     * 
+     * @param value JSON string saved in the status property
+     * @return the parsed JSON object, or an empty one if the value is not valid
+     */
+    private JSONObject parseStatus(String value) {
+        try {
+            return new JSONObject(value);
+        } catch (JSONException e) {
+            log.warn("Ignoring invalid status property value: " + value);
+            return new JSONObject();
+        }
+    }
+
+    /**
+     * check whether the file was already verified by an earlier run, using the status property only, i.e. without downloading or rehashing
+     * 
+     * @param fileId FILEID of the file
+     * @param hash expected checksum of the file
+     * @param targetFolder folder where the file should be saved
+     * @return true if the status property reports the same checksum and the file still exists with the reported size, false otherwise
+     */
+    private boolean isAlreadyVerified(String fileId, String hash, String targetFolder) {
+        Processproperty statusProperty = statusPropertyMap.get(fileId);
+        if (statusProperty == null) {
+            return false;
+        }
+
+        JSONObject status = parseStatus(statusProperty.getWert());
+        String fileName = status.optString("file");
+        if (!hash.equals(status.optString("hash")) || StringUtils.isBlank(fileName)) {
+            return false;
+        }
+
+        Path file = Paths.get(targetFolder, fileName);
+        try {
+            if (!StorageProvider.getInstance().isFileExists(file) || StorageProvider.getInstance().getFileSize(file) != status.optLong("size", -1)) {
+                return false;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to check the size of the file " + file, e);
+            return false;
+        }
+
+        if (!manifestAlgorithms.isEmpty()) {
+            // the checksums of earlier runs are reused, missing ones are calculated when the manifests are written
+            Map<String, String> checksums = new HashMap<>();
+            JSONObject savedChecksums = status.optJSONObject("checksums");
+            if (savedChecksums != null) {
+                for (String algorithm : savedChecksums.keySet()) {
+                    checksums.put(algorithm, savedChecksums.getString(algorithm));
+                }
+            }
+            checksums.put(MultiDigest.SHA256, hash);
+            manifestEntries.put(file, checksums);
+        }
+        return true;
+    }
+
+    /**
+     * remember the status of a successfully verified file, it will be saved into the process properties and the manifests at the end of the run
+     * 
+     * @param fileId FILEID of the file
+     * @param verifiedFile the verified file and its checksums
+     * @throws IOException
+     */
+    private void recordStatus(String fileId, VerifiedFile verifiedFile) throws IOException {
+        Path destination = verifiedFile.getPath();
+        Map<String, String> checksums = verifiedFile.getChecksums();
+        if (!manifestAlgorithms.isEmpty()) {
+            manifestEntries.put(destination, checksums);
+        }
+        if (StringUtils.isBlank(statusPropertyName)) {
+            return;
+        }
+
+        JSONObject status = new JSONObject();
+        status.put("fileId", fileId);
+        status.put("hash", checksums.get(MultiDigest.SHA256));
+        if (!manifestAlgorithms.isEmpty()) {
+            status.put("checksums", new JSONObject(checksums));
+        }
+        status.put("file", destination.getFileName().toString());
+        status.put("size", StorageProvider.getInstance().getFileSize(destination));
+        status.put("timestamp", Instant.now().toString());
+        verifiedStatusMap.put(fileId, status);
+    }
+
+    /**
+     * save the status of all files verified during this run into the process properties in one go
+     */
+    private void saveStatusProperties() {
+        for (Map.Entry<String, JSONObject> entry : verifiedStatusMap.entrySet()) {
+            String fileId = entry.getKey();
+            Processproperty property = statusPropertyMap.get(fileId);
+            if (property == null) {
+                property = new Processproperty();
+                property.setTitel(statusPropertyName);
+                property.setProzess(process);
+                process.getEigenschaftenList().add(property);
+                statusPropertyMap.put(fileId, property);
+            }
+            property.setWert(entry.getValue().toString());
+            PropertyManager.saveProcessProperty(property);
+        }
+        log.debug(verifiedStatusMap.size() + " status properties saved");
+        verifiedStatusMap.clear();
+    }
+
+    /**
+     * write the fixity manifests of all target folders, existing manifests are merged with the files verified during this run and cleared of files
+     * that do not exist any longer
+     */
+    private void writeManifests() {
+        if (manifestAlgorithms.isEmpty()) {
+            return;
+        }
+        Map<Path, List<Path>> folderFilesMap = new HashMap<>();
+        for (Path file : manifestEntries.keySet()) {
+            folderFilesMap.computeIfAbsent(file.getParent(), folder -> new ArrayList<>()).add(file);
+        }
+        for (Map.Entry<Path, List<Path>> folderFiles : folderFilesMap.entrySet()) {
+            try {
+                writeManifests(folderFiles.getKey(), folderFiles.getValue());
+            } catch (IOException e) {
+                logError("Failed to write the manifests of the folder " + folderFiles.getKey() + ": " + e.getMessage());
+            }
+        }
+        manifestEntries.clear();
+    }
+
+    /**
+     * write the manifests of one target folder, one per algorithm
+     * 
+     * @param folder the target folder
+     * @param files all files of this folder that were verified
+     * @throws IOException
+     */
+    private void writeManifests(Path folder, List<Path> files) throws IOException {
+        Map<String, Path> manifestFiles = new HashMap<>();
+        Map<String, Map<String, String>> manifests = new HashMap<>();
+        for (String algorithm : manifestAlgorithms) {
+            String name = manifestFileName.replace("{ALGORITHM}", algorithm).replace("{FOLDER}", folder.getFileName().toString());
+            Path manifestFile = folder.resolve(name).normalize();
+            manifestFiles.put(algorithm, manifestFile);
+            Map<String, String> manifest = readManifest(manifestFile);
+            // files deleted or renamed since an earlier run are not listed any longer
+            manifest.keySet().removeIf(entry -> !StorageProvider.getInstance().isFileExists(manifestFile.getParent().resolve(entry)));
+            manifests.put(algorithm, manifest);
+        }
+
+        for (Path file : files) {
+            Map<String, String> checksums = manifestEntries.get(file);
+            // files skipped because of their status property may lack some checksums, they are read once for all missing algorithms
+            boolean complete = true;
+            for (String algorithm : manifestAlgorithms) {
+                String entry = getManifestPath(manifestFiles.get(algorithm), file);
+                if (!checksums.containsKey(algorithm) && !manifests.get(algorithm).containsKey(entry)) {
+                    complete = false;
+                }
+            }
+            if (!complete) {
+                log.debug("calculating the missing checksums of the file " + file);
+                checksums = calculateChecksums(file);
+            }
+            for (String algorithm : manifestAlgorithms) {
+                if (checksums.containsKey(algorithm)) {
+                    manifests.get(algorithm).put(getManifestPath(manifestFiles.get(algorithm), file), checksums.get(algorithm));
+                }
+            }
+        }
+
+        for (String algorithm : manifestAlgorithms) {
+            Path manifestFile = manifestFiles.get(algorithm);
+            Path partFile = getPartFile(manifestFile);
+            StorageProvider.getInstance().createDirectories(manifestFile.getParent());
+            try (Writer writer = new OutputStreamWriter(StorageProvider.getInstance().newOutputStream(partFile), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> entry : manifests.get(algorithm).entrySet()) {
+                    writer.write(manifestFormat.replace("{CHECKSUM}", entry.getValue()).replace("{FILE}", entry.getKey()));
+                    writer.write("\n");
+                }
+            } catch (IOException e) {
+                deleteQuietly(partFile);
+                throw e;
+            }
+            moveIntoPlace(partFile, manifestFile);
+            log.debug("manifest written: " + manifestFile);
+        }
+    }
+
+    /**
+     * read an existing manifest
+     * 
+     * @param manifestFile path of the manifest
+     * @return map between the paths and the checksums of all entries of the manifest, empty if it does not exist
+     * @throws IOException
+     */
+    private Map<String, String> readManifest(Path manifestFile) throws IOException {
+        Map<String, String> entries = new TreeMap<>();
+        if (!StorageProvider.getInstance().isFileExists(manifestFile)) {
+            return entries;
+        }
+        // the configured format is turned into a pattern, all other text of the format must match literally
+        String regex = Pattern.quote(manifestFormat).replace("{CHECKSUM}", "\\E(?<checksum>\\S+)\\Q").replace("{FILE}", "\\E(?<file>.+)\\Q");
+        Pattern linePattern = Pattern.compile(regex);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(StorageProvider.getInstance().newInputStream(manifestFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = linePattern.matcher(line);
+                if (matcher.matches()) {
+                    entries.put(matcher.group("file"), matcher.group("checksum"));
+                } else if (StringUtils.isNotBlank(line)) {
+                    log.warn("Ignoring invalid line of the manifest " + manifestFile + ": " + line);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * get the path of a file as it is listed in a manifest, i.e. relative to the folder of the manifest and separated by slashes
+     * 
+     * @param manifestFile path of the manifest
+     * @param file path of the listed file
+     * @return the relative path
+     */
+    private String getManifestPath(Path manifestFile, Path file) {
+        return manifestFile.getParent().relativize(file).toString().replace('\\', '/');
+    }
+
     /**
      * download and verify all files
      * 
@@ -344,102 +801,534 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
      * @return a map containing infos of unsuccessful files
      */
     private Map<String, String> processAllFiles() {
-        Map<String, String> unsuccessfulMap = new HashMap<>();
-        // download and verify files
+        Map<String, String> pendingMap = new HashMap<>();
         for (Map.Entry<String, String> urlHashPair : urlHashMap.entrySet()) {
+            String url = urlHashPair.getKey();
+            if (isAlreadyVerified(urlIdMap.get(url), urlHashPair.getValue(), urlFolderMap.get(url))) {
+                log.debug("file " + urlIdMap.get(url) + " was already verified, skipping it");
+                progress.fileDone();
+            } else {
+                pendingMap.put(url, urlHashPair.getValue());
+            }
+        }
+        if (StringUtils.isNotBlank(bundleUrl)) {
+            processBundles(pendingMap);
+        }
+
+        // every file stays unsuccessful until it was downloaded and verified
+        Map<String, String> unsuccessfulMap = new ConcurrentHashMap<>(pendingMap);
+        // download and verify files, the limiter decides how many of the workers are transferring files at the same time
+        ExecutorService workers = Executors.newFixedThreadPool(downloadLimiter.getMaxLimit(), r -> {
+            Thread thread = new Thread(r, "download-worker-" + process.getId());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Map.Entry<String, String> urlHashPair : pendingMap.entrySet()) {
             String url = urlHashPair.getKey();
             String hash = urlHashPair.getValue();
             String targetFolder = urlFolderMap.get(url);
             String fileId = urlIdMap.get(url);
+            workers.execute(() -> {
+                try {
+                    processFile(url, hash, targetFolder, fileId);
+                    unsuccessfulMap.remove(url);
+
+                } catch (Exception e) {
+                    log.debug("Failed to process the file " + fileId, e);
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        return new HashMap<>(unsuccessfulMap);
+    }
+
+    /**
+     * download the pending files in bundles, every successfully extracted and verified file is removed from the input map, so that only the remaining
+     * files are downloaded one by one
+     * 
+     * @param pendingMap map between the urls and the expected checksums of all files that still need to be downloaded
+     */
+    private void processBundles(Map<String, String> pendingMap) {
+        List<String> urls = new ArrayList<>(pendingMap.keySet());
+        for (int i = 0; i < urls.size(); i += bundleMaxFiles) {
+            Map<String, String> idUrlMap = new HashMap<>();
+            for (String url : urls.subList(i, Math.min(i + bundleMaxFiles, urls.size()))) {
+                idUrlMap.put(urlIdMap.get(url), url);
+            }
+            Set<String> verifiedUrls = new HashSet<>();
             try {
-                processFile(url, hash, targetFolder, fileId);
+                downloadBundle(idUrlMap, pendingMap, verifiedUrls);
+            } catch (IOException e) {
+                log.warn("Failed to download the bundle of the files " + idUrlMap.keySet() + ", downloading them one by one: " + e.getMessage());
+            }
+            pendingMap.keySet().removeAll(verifiedUrls);
+        }
+    }
+
+    /**
+     * download one bundle and extract its entries directly into their target folders
+     * 
+     * @param idUrlMap map between the FILEIDs and the urls of the files that shall be part of the bundle
+     * @param pendingMap map between the urls and the expected checksums
+     * @param verifiedUrls collects the urls of all files that were extracted and verified successfully
+     * @throws IOException if the bundle could not be downloaded or read completely
+     */
+    private void downloadBundle(Map<String, String> idUrlMap, Map<String, String> pendingMap, Set<String> verifiedUrls) throws IOException {
+        List<String> fileIds = new ArrayList<>();
+        for (String fileId : idUrlMap.keySet()) {
+            fileIds.add(URLEncoder.encode(fileId, StandardCharsets.UTF_8));
+        }
+        String url = bundleUrl.replace("{FILEIDS}", String.join(",", fileIds));
+        log.debug("downloading bundle from url: " + url);
+        HttpPost method = new HttpPost(url);
+        if (StringUtils.isNotBlank(authenticationToken)) {
+            method.setHeader("Authorization", authenticationToken);
+        }
+        method.setHeader("Accept-Encoding", acceptEncoding);
+
+        // a bundle is one request against the source system like any single file
+        DownloadCoordination.Lease sourceSlot = downloadSlots.acquire();
+        boolean success = false;
+        long start = System.currentTimeMillis();
+        try (CloseableHttpClient httpclient = HttpClientBuilder.create().disableContentCompression().setDefaultRequestConfig(downloadRequestConfig).build();
+                CloseableHttpResponse response = httpclient.execute(method)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode >= 300) {
+                throw new DownloadException("Unexpected response " + response.getStatusLine() + " from " + url, statusCode);
+            }
+            downloadSlots.reportLatency(System.currentTimeMillis() - start);
+            try (InputStream in = openDecodedStream(response.getEntity())) {
+                BundleArchive.extract(in, (name, content) -> extractBundleEntry(name, content, idUrlMap, pendingMap, verifiedUrls));
+            }
+            success = true;
+        } catch (IOException e) {
+            downloadSlots.reportFailure(e);
+            throw e;
+        } finally {
+            downloadSlots.release(sourceSlot, success);
+        }
+    }
 
-            } catch (Exception e) {
-                unsuccessfulMap.put(url, hash);
+    /**
+     * save one entry of a bundle into the target folder of the file and verify it on the fly
+     * 
+     * @param name name of the entry, its file name must be the FILEID, optionally followed by an extension
+     * @param content content of the entry
+     * @param idUrlMap map between the FILEIDs and the urls of the files that are part of the bundle
+     * @param pendingMap map between the urls and the expected checksums
+     * @param verifiedUrls collects the urls of all files that were extracted and verified successfully
+     * @throws IOException if the entry could not be read or saved
+     */
+    private void extractBundleEntry(String name, InputStream content, Map<String, String> idUrlMap, Map<String, String> pendingMap,
+            Set<String> verifiedUrls) throws IOException {
+        String entryName = name.substring(name.lastIndexOf('/') + 1);
+        // FILEIDs may contain dots themselves, so the longest FILEID the entry name starts with wins
+        String fileId = null;
+        for (String id : idUrlMap.keySet()) {
+            if ((entryName.equals(id) || entryName.startsWith(id + ".")) && (fileId == null || id.length() > fileId.length())) {
+                fileId = id;
             }
         }
+        String url = fileId == null ? null : idUrlMap.get(fileId);
+        if (url == null || verifiedUrls.contains(url)) {
+            log.warn("Ignoring unexpected entry of the bundle: " + name);
+            return;
+        }
 
-        return unsuccessfulMap;
+        String targetFolder = urlFolderMap.get(url);
+        String fileName = Paths.get(url).getFileName().toString();
+        DownloadCoordination.Lease fileLease = null;
+        if (coordination != null) {
+            fileLease = coordination.tryAcquireFileLease(getLeaseKey(targetFolder, fileName));
+            if (fileLease == null) {
+                log.debug("file " + fileId + " is locked by another node, skipping the entry of the bundle");
+                return;
+            }
+        }
+        try {
+            String extension = entryName.substring(fileId.length());
+            if (extension.isEmpty()) {
+                // entries without extension are named by their detected type
+                content = new BufferedInputStream(content, 65536);
+                extension = ContentSniffer.getExtension(ContentSniffer.peek(content), null);
+            }
+            Path destination = Paths.get(targetFolder, fileName + extension);
+            Path partFile = getPartFile(destination);
+            StorageProvider.getInstance().createDirectories(destination.getParent());
+            Map<String, String> checksums;
+            DownloadProgress.Transfer transfer = progress.startTransfer(-1);
+            try (OutputStream out = StorageProvider.getInstance().newOutputStream(partFile)) {
+                checksums = copyAndHash(content, out, transfer);
+            } catch (IOException e) {
+                abortTransfer(transfer, partFile);
+                throw e;
+            }
+            if (!pendingMap.get(url).equals(checksums.get(MultiDigest.SHA256))) {
+                abortTransfer(transfer, partFile);
+                log.warn("checksums do not match, the entry of the bundle might be corrupted: " + name);
+                return;
+            }
+            if (fileLease != null && fileLease.isLost()) {
+                abortTransfer(transfer, partFile);
+                log.warn("file " + fileId + " was taken over by another node, skipping the entry of the bundle");
+                return;
+            }
+            moveIntoPlace(partFile, destination);
+            transfer.complete();
+            progress.fileDone();
+            recordStatus(fileId, new VerifiedFile(destination, checksums));
+            reportResults(true, fileId);
+            verifiedUrls.add(url);
+        } finally {
+            if (coordination != null) {
+                coordination.release(fileLease);
+            }
+        }
     }
 
     /**
-     * download and verify the file
+     * download and verify the file, if a coordination between several nodes is configured the target file is locked for this node first
      * 
      * @param fileUrl url of the file from where it shall be downloaded
      * @param hash expected checksum of the file
      * @param targetFolder folder to save the downloaded file
-     * @throws IOException
+     * @param fileId FILEID of the file
+     * @throws IOException if the file could not be downloaded and verified
      */
     private void processFile(String fileUrl, String hash, String targetFolder, String fileId) throws IOException {
-        // prepare URL
-        log.debug("downloading file from url: " + fileUrl);
-        boolean successful = false;
+        // the file name is always derived from the primary url, so that it does not depend on the mirror that was used
         String fileName = Paths.get(fileUrl).getFileName().toString();
+        if (coordination == null) {
+            downloadFromMirrors(hash, targetFolder, fileId, fileName, null);
+            return;
+        }
 
-        CloseableHttpClient httpclient = null;
-        HttpPost method = null;
-        String actualHash = "";
-        Path destination = null;
+        DownloadCoordination.Lease fileLease = coordination.acquireFileLease(getLeaseKey(targetFolder, fileName));
         try {
+            // another node may have finished this file already
+            VerifiedFile existingFile = findVerifiedFile(targetFolder, fileName, hash);
+            if (existingFile != null) {
+                log.debug("file " + fileId + " was already downloaded by another node: " + existingFile.getPath());
+                progress.fileDone();
+                recordStatus(fileId, existingFile);
+                return;
+            }
+            downloadFromMirrors(hash, targetFolder, fileId, fileName, fileLease);
+        } finally {
+            coordination.release(fileLease);
+        }
+    }
 
-            method = new HttpPost(fileUrl);
-            httpclient = HttpClientBuilder.create().build();
-            if (StringUtils.isNotBlank(authenticationToken)) {
-                method.setHeader("Authorization", authenticationToken);
+    /**
+     * download and verify the file, all configured mirrors are tried one after another until one of them delivers a valid file
+     * 
+     * @param hash expected checksum of the file
+     * @param targetFolder folder to save the downloaded file
+     * @param fileId FILEID of the file
+     * @param fileName name of the file without extension
+     * @param fileLease lease of the target file, null if there is no coordination with other nodes
+     * @throws IOException if no mirror delivered a valid file
+     */
+    private void downloadFromMirrors(String hash, String targetFolder, String fileId, String fileName, DownloadCoordination.Lease fileLease)
+            throws IOException {
+        IOException lastException = null;
+        for (MirrorPool.Mirror mirror : mirrorPool.getOrderedMirrors()) {
+            String mirrorUrl = mirror.getUrl(fileId);
+            try {
+                VerifiedFile verifiedFile = downloadFromMirror(mirror, mirrorUrl, fileId, hash, targetFolder, fileName, fileLease);
+                //file exists and is valid: send success message
+                progress.fileDone();
+                recordStatus(fileId, verifiedFile);
+                reportResults(true, fileId);
+                return;
+            } catch (IOException e) {
+                log.warn("Failed to download and validate the file from " + mirrorUrl + ": " + e.getMessage());
+                if (fileLease != null && fileLease.isLost()) {
+                    // another node is downloading the file now, the other mirrors are not tried either
+                    throw e;
+                }
+                lastException = e;
+            }
+        }
+
+        throw lastException != null ? lastException : new IOException("No download url configured for the file " + fileId);
+    }
+
+    /**
+     * download the file from one mirror and verify it, the health of the mirror is updated according to the outcome
+     * 
+     * @param mirror mirror that shall be used
+     * @param fileUrl url of the file on this mirror
+     * @param hash expected checksum of the file
+     * @param targetFolder folder to save the downloaded file
+     * @param fileName name of the file without extension
+     * @param fileLease lease of the target file, null if there is no coordination with other nodes
+     * @return the downloaded and verified file
+     * @throws IOException if the download failed, the checksums do not match or the lease of the target file was lost
+     */
+    private VerifiedFile downloadFromMirror(MirrorPool.Mirror mirror, String fileUrl, String fileId, String hash, String targetFolder, String fileName,
+            DownloadCoordination.Lease fileLease) throws IOException {
+        log.debug("downloading file from url: " + fileUrl);
+        HttpPost method = new HttpPost(fileUrl);
+        if (StringUtils.isNotBlank(authenticationToken)) {
+            method.setHeader("Authorization", authenticationToken);
+        }
+        // only mirrors that announced byte ranges before are asked for a range, all others may still deliver compressed content
+        boolean rangeRequest = segmentedDownloadMinimumSize > 0 && mirror.isRangesSupported();
+        if (rangeRequest) {
+            // smaller files are delivered completely, larger ones reveal their size
+            method.setHeader("Range", "bytes=0-" + (segmentedDownloadMinimumSize - 1));
+            // ranges must refer to the file itself and not to an encoded representation of it
+            method.setHeader("Accept-Encoding", "identity");
+        } else {
+            method.setHeader("Accept-Encoding", acceptEncoding);
+        }
+
+        Map<String, String> checksums;
+        Path destination = null;
+        // the file is downloaded under a unique temporary name and only renamed after it was verified
+        Path partFile = null;
+        DownloadProgress.Transfer transfer = null;
+        // the slot is only held while the file is transferred, not while waiting for a lease of the file
+        DownloadCoordination.Lease sourceSlot = downloadSlots.acquire();
+        boolean success = false;
+        long start = System.currentTimeMillis();
+        // the content is decoded by the plugin itself while it is written
+        try (CloseableHttpClient httpclient = HttpClientBuilder.create().disableContentCompression().setDefaultRequestConfig(downloadRequestConfig).build();
+                CloseableHttpResponse response = httpclient.execute(method)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode >= 300) {
+                throw new DownloadException("Unexpected response " + response.getStatusLine() + " from " + fileUrl, statusCode);
+            }
+            // latency of the mirror is measured until the response headers arrived, it does not depend on the size of the file
+            long latency = System.currentTimeMillis() - start;
+            mirrorPool.reportSuccess(mirror, latency);
+            downloadSlots.reportLatency(latency);
+            if (segmentedDownloadMinimumSize > 0) {
+                Header acceptRanges = response.getFirstHeader("Accept-Ranges");
+                boolean rangesSupported = statusCode == 206 || acceptRanges != null && "bytes".equalsIgnoreCase(acceptRanges.getValue().trim());
+                mirrorPool.reportRangeSupport(mirror, rangesSupported);
             }
 
-            String extension = "";
-            HttpResponse response = httpclient.execute(method);
             HttpEntity entity = response.getEntity();
-            for (Header h : response.getHeaders("content-disposition")) {
-                String val = h.getValue();
-                Matcher m = filenamePattern.matcher(val);
-                if (m.find()) {
-                    extension = m.group(1);
-                    if (extension.contains(".")) {
-                        extension = extension.substring(extension.indexOf("."));
+            String contentType = entity.getContentType() == null ? null : entity.getContentType().getValue();
+            // a file name sent by the server is trusted, otherwise the type is detected from the first bytes before anything is written
+            String extension = getDispositionExtension(response);
+
+            long totalSize = rangeRequest && statusCode == 206 ? SegmentedDownload.getTotalSize(response, segmentedDownloadMinimumSize) : -1;
+            if (totalSize >= segmentedDownloadMinimumSize && segmentedDownloadMinimumSize > 0) {
+                if (StringUtils.isBlank(extension)) {
+                    // the content stream is not closed, since this would read the remaining bytes of the first range
+                    extension = ContentSniffer.getExtension(entity.getContent().readNBytes(ContentSniffer.SNIFF_LENGTH), contentType);
+                }
+                // the response only holds the first bytes, abort it and fetch the whole file in segments
+                response.close();
+                // the file keeps its slot of the parallel downloads, the segment requests wait for slots of the source system of their own
+                downloadSlots.releaseSourceSlot(sourceSlot);
+                sourceSlot = null;
+                destination = Paths.get(targetFolder, fileName + extension);
+                partFile = getPartFile(destination);
+                StorageProvider.getInstance().createDirectories(destination.getParent());
+                log.debug("downloading " + totalSize + " bytes in " + segmentedDownloadSegments + " segments: " + fileUrl);
+                transfer = progress.startTransfer(totalSize);
+                new SegmentedDownload(authenticationToken, mirrorPool, segmentedDownloadSegments, downloadRequestConfig, downloadSlots)
+                        .download(fileId, totalSize, partFile, transfer);
+                checksums = calculateChecksums(partFile);
+            } else {
+                // the length of encoded content says nothing about the size of the file
+                transfer = progress.startTransfer(entity.getContentEncoding() == null ? entity.getContentLength() : -1);
+                try (InputStream in = new BufferedInputStream(openDecodedStream(entity), 65536)) {
+                    if (StringUtils.isBlank(extension)) {
+                        extension = ContentSniffer.getExtension(ContentSniffer.peek(in), contentType);
+                    }
+                    destination = Paths.get(targetFolder, fileName + extension);
+                    partFile = getPartFile(destination);
+                    StorageProvider.getInstance().createDirectories(destination.getParent());
+                    // the checksum is calculated over the decoded bytes while they are written
+                    try (OutputStream out = StorageProvider.getInstance().newOutputStream(partFile)) {
+                        checksums = copyAndHash(in, out, transfer);
                     }
                 }
             }
-            String contentType = entity.getContentType().getValue();
-            if (StringUtils.isBlank(extension) && StringUtils.isNotBlank(contentType)) {
-                extension = "." + contentType.substring(contentType.indexOf("/") + 1);
-                if (extension.contains(";")) {
-                    extension = extension.substring(0, extension.indexOf(";"));
-                }
+            success = true;
+        } catch (DownloadException e) {
+            if (e.isMirrorFailure()) {
+                mirrorPool.reportFailure(mirror);
             }
+            downloadSlots.reportFailure(e);
+            abortTransfer(transfer, partFile);
+            throw e;
+        } catch (IOException e) {
+            mirrorPool.reportFailure(mirror);
+            downloadSlots.reportFailure(e);
+            abortTransfer(transfer, partFile);
+            throw e;
+        } finally {
+            downloadSlots.release(sourceSlot, success);
+        }
 
-            destination = Paths.get(targetFolder, fileName + extension);
-            StorageProvider.getInstance().createDirectories(destination.getParent());
-
-            try (OutputStream out = StorageProvider.getInstance().newOutputStream(destination)) {
-                entity.writeTo(out);
-            }
+        // check checksum
+        if (!hash.equals(checksums.get(MultiDigest.SHA256))) {
+            // a mirror delivering corrupt content must not stay first in line for the following files
+            mirrorPool.reportFailure(mirror);
+            // delete the downloaded file
+            abortTransfer(transfer, partFile);
+            throw new IOException("checksums do not match, the file might be corrupted: " + destination);
+        }
+        if (fileLease != null && fileLease.isLost()) {
+            abortTransfer(transfer, partFile);
+            throw new IOException("The lease of the file was taken over by another node: " + destination);
+        }
 
-            // url is correctly formed, download the file
+        moveIntoPlace(partFile, destination);
+        transfer.complete();
+        return new VerifiedFile(destination, checksums);
+    }
 
-            try (InputStream inputStream = StorageProvider.getInstance().newInputStream(destination)) {
-                actualHash = calculateHash(inputStream);
+    /**
+     * get the extension of the file name sent by the server
+     * 
+     * @param response response of the download request
+     * @return the extension including the leading dot, or an empty string if the server did not send a file name with a plausible extension
+     */
+    private String getDispositionExtension(HttpResponse response) {
+        String extension = "";
+        for (Header h : response.getHeaders("content-disposition")) {
+            String val = h.getValue();
+            Matcher m = filenamePattern.matcher(val);
+            if (m.find()) {
+                String name = m.group(1);
+                // only the last part counts, file names like thesis.final.pdf contain further dots
+                String candidate = name.substring(Math.max(name.lastIndexOf('.'), 0));
+                extension = extensionPattern.matcher(candidate).matches() ? candidate : "";
             }
-            successful = true;
-        } catch (Exception e) {
-            log.error("Unable to connect to url " + fileUrl, e);
         }
-        // check checksum
-        if (!hash.equals(actualHash)) {
-            String message = "checksums do not match, the file might be corrupted: " + destination;
-            // delete the downloaded file
-            Files.delete(destination);
-            successful = false;
-            throw new IOException(message);
+        return extension;
+    }
+
+    /**
+     * get a unique temporary name for a file, the file is only renamed to its final name after it was verified
+     * 
+     * @param destination final path of the file
+     * @return path of the temporary file in the same folder
+     */
+    private Path getPartFile(Path destination) {
+        return destination.resolveSibling(destination.getFileName() + "." + UUID.randomUUID() + PART_FILE_SUFFIX);
+    }
+
+    /**
+     * take back the progress of a failed transfer and delete its temporary file
+     * 
+     * @param transfer failed transfer, may be null
+     * @param partFile temporary file, may be null
+     */
+    private void abortTransfer(DownloadProgress.Transfer transfer, Path partFile) {
+        if (transfer != null) {
+            transfer.abort();
         }
+        deleteQuietly(partFile);
+    }
 
-        //if file exist and is valid: send success message
+    /**
+     * rename a verified temporary file to its final name, replacing an older file of that name
+     * 
+     * @param partFile verified temporary file
+     * @param destination final path of the file
+     * @throws IOException
+     */
+    private void moveIntoPlace(Path partFile, Path destination) throws IOException {
         if (StorageProvider.getInstance().isFileExists(destination)) {
-            reportResults(successful, fileId);
+            StorageProvider.getInstance().deleteFile(destination);
+        }
+        StorageProvider.getInstance().move(partFile, destination);
+    }
 
+    /**
+     * open the content of the response, decoding it according to its Content-Encoding header
+     * 
+     * @param entity entity of the response
+     * @return stream of the decoded content
+     * @throws IOException if the content encoding is not supported
+     */
+    private InputStream openDecodedStream(HttpEntity entity) throws IOException {
+        String encoding = entity.getContentEncoding() == null ? "" : entity.getContentEncoding().getValue().trim().toLowerCase();
+        InputStream in = entity.getContent();
+        switch (encoding) {
+            case "":
+            case "identity":
+                return in;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, 65536);
+            case "deflate":
+                return new DeflateInputStream(in);
+            default:
+                in.close();
+                throw new IOException("Unsupported content encoding: " + encoding);
         }
+    }
 
+    /**
+     * get the key of the lease protecting a target file, derived from its path so that it is the same on all nodes
+     * 
+     * @param targetFolder folder of the file
+     * @param fileName name of the file without extension
+     * @return key of the lease
+     */
+    private String getLeaseKey(String targetFolder, String fileName) {
+        MultiDigest digest = new MultiDigest(Collections.emptyList());
+        byte[] path = Paths.get(targetFolder, fileName).toString().getBytes(StandardCharsets.UTF_8);
+        digest.update(path, 0, path.length);
+        return "file-" + digest.getChecksums().get(MultiDigest.SHA256);
+    }
+
+    /**
+     * find an existing file in the target folder that matches the expected checksum
+     * 
+     * @param targetFolder folder of the file
+     * @param fileName name of the file without extension
+     * @param hash expected checksum of the file
+     * @return path of the matching file, or null if there is none
+     * @throws IOException
+     */
+    private VerifiedFile findVerifiedFile(String targetFolder, String fileName, String hash) throws IOException {
+        if (!StorageProvider.getInstance().isFileExists(Paths.get(targetFolder))) {
+            return null;
+        }
+        List<Path> candidates = StorageProvider.getInstance().listFiles(targetFolder, path -> {
+            String name = path.getFileName().toString();
+            return (name.equals(fileName) || name.startsWith(fileName + ".")) && !name.endsWith(PART_FILE_SUFFIX);
+        });
+        for (Path candidate : candidates) {
+            Map<String, String> checksums = calculateChecksums(candidate);
+            if (hash.equals(checksums.get(MultiDigest.SHA256))) {
+                return new VerifiedFile(candidate, checksums);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * delete a file that could not be downloaded or verified completely
+     * 
+     * @param file file that shall be deleted, may be null
+     */
+    private void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            StorageProvider.getInstance().deleteFile(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete the file " + file, e);
+        }
     }
 
     /**
@@ -556,7 +1445,7 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
                 httpBase.setHeader("Authorization", authenticationToken);
             }
 
-            try (CloseableHttpClient client = HttpClients.createDefault()) {
+            try (CloseableHttpClient client = HttpClientBuilder.create().setDefaultRequestConfig(callbackRequestConfig).build()) {
                 httpBase.setHeader("Accept", "application/json");
                 if (StringUtils.isNotBlank(json)) {
                     httpBase.setHeader("Content-type", "application/json");
@@ -564,11 +1453,15 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
                 }
                 log.info("Executing request " + httpBase.getRequestLine());
 
-                String responseBody = client.execute(httpBase, HttpUtils.stringResponseHandler);
+                String responseBody = executeCallback(client, httpBase);
                 log.debug(responseBody);
                 return true;
             }
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logError("Interrupted while waiting to send the response via REST to " + url);
+            return false;
         } catch (Exception e) {
             String message = "Failed to send response via REST: " + e;
             logError(message);
@@ -577,6 +1470,51 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
         }
     }
 
+    /**
+     * execute a callback request within the limit of parallel callbacks, the limit is adapted to the latency and status of the response
+     * 
+     * @param client client that shall execute the request
+     * @param request the callback request
+     * @return body of the response
+     * @throws IOException
+     * @throws InterruptedException if the thread was interrupted while waiting for the limiter
+     */
+    private String executeCallback(CloseableHttpClient client, HttpEntityEnclosingRequestBase request) throws IOException, InterruptedException {
+        callbackLimiter.acquire();
+        boolean[] success = { false };
+        try {
+            long start = System.currentTimeMillis();
+            return client.execute(request, response -> {
+                int statusCode = response.getStatusLine().getStatusCode();
+                callbackLimiter.reportLatency(System.currentTimeMillis() - start);
+                if (statusCode == 429 || statusCode == 503) {
+                    callbackLimiter.reportOverload();
+                }
+                success[0] = statusCode < 300;
+                return HttpUtils.stringResponseHandler.handleResponse(response);
+            });
+        } catch (InterruptedIOException e) {
+            callbackLimiter.reportOverload();
+            throw e;
+        } finally {
+            callbackLimiter.release(success[0]);
+        }
+    }
+
+    /**
+     * create the configuration of http requests
+     * 
+     * @param timeoutSeconds connect and socket timeout, 0 to use the defaults
+     * @return the request configuration
+     */
+    private static RequestConfig createRequestConfig(int timeoutSeconds) {
+        RequestConfig.Builder builder = RequestConfig.custom();
+        if (timeoutSeconds > 0) {
+            builder.setConnectTimeout(timeoutSeconds * 1000).setSocketTimeout(timeoutSeconds * 1000);
+        }
+        return builder.build();
+    }
+
     @Data
     @AllArgsConstructor
     private class SingleResponse {
@@ -587,6 +1525,14 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
         private String message;
     }
 
+    @Data
+    @AllArgsConstructor
+    private static class VerifiedFile {
+        private Path path;
+        // algorithm -> checksum
+        private Map<String, String> checksums;
+    }
+
     @Data
     @AllArgsConstructor
     private class FileNameProperty {
@@ -595,36 +1541,40 @@ public class DownloadAndVerifyAssetsStepPlugin implements IStepPluginVersion2 {
         private String folder;
     }
 
-    private static String calculateHash(InputStream is) throws IOException {
-        MessageDigest shamd = null;
-        try {
-            shamd = MessageDigest.getInstance("SHA-256");
-
-            try (DigestInputStream dis = new DigestInputStream(is, shamd)) {
-                int n = 0;
-                byte[] buffer = new byte[8092];
-                while (n != -1) {
-                    n = dis.read(buffer);
-                }
-                is.close();
-            }
-            String shaString;
-            shaString = getShaString(shamd);
-
-            return shaString;
-        } catch (NoSuchAlgorithmException e1) {
-            return null;
+    /**
+     * calculate the checksums of an existing file, all algorithms are calculated in one pass
+     * 
+     * @param file the file
+     * @return map between the names of the algorithms and the checksums
+     * @throws IOException
+     */
+    private Map<String, String> calculateChecksums(Path file) throws IOException {
+        MultiDigest digest = new MultiDigest(manifestAlgorithms);
+        try (InputStream inputStream = StorageProvider.getInstance().newInputStream(file)) {
+            digest.update(inputStream);
         }
+        return digest.getChecksums();
     }
 
-    private static String getShaString(MessageDigest messageDigest) {
-        BigInteger bigInt = new BigInteger(1, messageDigest.digest());
-        StringBuilder sha256 = new StringBuilder(bigInt.toString(16).toLowerCase());
-        while (sha256.length() < 64) {
-            sha256.insert(0, "0");
+    /**
+     * copy the input stream into the output stream and calculate the checksums of the copied bytes in the same pass
+     * 
+     * @param in stream that shall be copied
+     * @param out target of the copy
+     * @param transfer transfer that counts the copied bytes
+     * @return map between the names of the algorithms and the checksums of the copied bytes
+     * @throws IOException
+     */
+    private Map<String, String> copyAndHash(InputStream in, OutputStream out, DownloadProgress.Transfer transfer) throws IOException {
+        MultiDigest digest = new MultiDigest(manifestAlgorithms);
+        byte[] buffer = new byte[65536];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+            out.write(buffer, 0, n);
+            transfer.addBytes(n);
         }
-
-        return sha256.toString();
+        return digest.getChecksums();
     }
 
 }
@@ -0,0 +1,245 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Coordinates the downloads of several Goobi nodes sharing the same storage. Every target file is owned by one node at a time, and the number of
+ * downloads running against the source system at the same time is limited across all nodes. Held leases are renewed in the background until they
+ * are released, a lease that was taken over by another node in the meantime is marked as lost.
+ */
+@Log4j2
+public class DownloadCoordination implements AutoCloseable {
+
+    private final DownloadCoordinator coordinator;
+    private final long leaseMillis;
+    private final int maxConcurrentDownloads;
+    private final long waitMillis;
+    private final long pollMillis;
+
+    @Getter
+    private final String owner;
+    // keys of all leases this node holds or is trying to acquire, so that two threads of this node never share a lease
+    private final Set<String> localKeys = ConcurrentHashMap.newKeySet();
+    // key -> acquired lease that is renewed in the background
+    private final Map<String, Lease> heldLeases = new ConcurrentHashMap<>();
+    // a lease is never renewed and released at the same time, otherwise the renewal could bring back a released lease
+    private final Object renewLock = new Object();
+    private final ScheduledExecutorService renewer;
+
+    /**
+     * 
+     * @param coordinator backend that grants the leases
+     * @param leaseMillis validity of a lease, it is renewed after a third of this time
+     * @param maxConcurrentDownloads maximum number of downloads running at the same time on all nodes, 0 for no limit
+     * @param waitMillis how long to wait for a lease before giving up
+     */
+    public DownloadCoordination(DownloadCoordinator coordinator, long leaseMillis, int maxConcurrentDownloads, long waitMillis) {
+        this.coordinator = coordinator;
+        this.leaseMillis = leaseMillis;
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.waitMillis = waitMillis;
+        this.pollMillis = Math.max(Math.min(leaseMillis / 10, 2000), 100);
+        this.owner = getHostName() + "-" + UUID.randomUUID();
+
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "download-lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long renewMillis = Math.max(leaseMillis / 3, 1);
+        renewer.scheduleAtFixedRate(this::renewLeases, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * acquire the lease of a target file, waiting until another node released it
+     * 
+     * @param key key of the target file
+     * @return the acquired lease
+     * @throws IOException if the lease could not be acquired within the waiting time
+     */
+    public Lease acquireFileLease(String key) throws IOException {
+        return acquire(new String[] { key });
+    }
+
+    /**
+     * acquire the lease of a target file only if it is free right now
+     * 
+     * @param key key of the target file
+     * @return the acquired lease, or null if another node holds it
+     * @throws IOException if the backend could not be accessed
+     */
+    public Lease tryAcquireFileLease(String key) throws IOException {
+        return tryAcquire(key);
+    }
+
+    /**
+     * acquire one of the slots limiting the concurrent downloads from the source system, waiting until a slot becomes free
+     * 
+     * @return the acquired lease of the slot, or null if the number of downloads is not limited
+     * @throws IOException if no slot could be acquired within the waiting time
+     */
+    public Lease acquireSourceSlot() throws IOException {
+        if (maxConcurrentDownloads <= 0) {
+            return null;
+        }
+        String[] keys = new String[maxConcurrentDownloads];
+        for (int i = 0; i < maxConcurrentDownloads; ++i) {
+            keys[i] = "source-slot-" + i;
+        }
+        return acquire(keys);
+    }
+
+    /**
+     * release a lease
+     * 
+     * @param lease lease that shall be released, may be null
+     */
+    public void release(Lease lease) {
+        if (lease == null) {
+            return;
+        }
+        synchronized (renewLock) {
+            heldLeases.remove(lease.getKey(), lease);
+            try {
+                coordinator.release(lease.getKey(), owner);
+            } catch (IOException e) {
+                log.warn("Failed to release the lease " + lease.getKey() + ", it will expire", e);
+            }
+        }
+        localKeys.remove(lease.getKey());
+    }
+
+    @Override
+    public void close() {
+        renewer.shutdownNow();
+        for (Lease lease : heldLeases.values()) {
+            release(lease);
+        }
+    }
+
+    /**
+     * acquire the first free lease of the given keys
+     * 
+     * @param keys keys of the leases, any one of them is sufficient
+     * @return the acquired lease
+     * @throws IOException if no lease could be acquired within the waiting time
+     */
+    private Lease acquire(String[] keys) throws IOException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            for (String key : keys) {
+                Lease lease = tryAcquire(key);
+                if (lease != null) {
+                    return lease;
+                }
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Timed out waiting for the lease " + keys[0]);
+            }
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the lease " + keys[0], e);
+            }
+        }
+    }
+
+    /**
+     * try to acquire a lease that is not held by another thread of this node either, the backend alone cannot tell them apart because they share
+     * the owner
+     * 
+     * @param key key of the lease
+     * @return the acquired lease, or null if it is held by someone else
+     * @throws IOException if the backend could not be accessed
+     */
+    private Lease tryAcquire(String key) throws IOException {
+        if (!localKeys.add(key)) {
+            return null;
+        }
+        boolean acquired = false;
+        try {
+            acquired = coordinator.tryAcquire(key, owner, leaseMillis);
+        } finally {
+            if (!acquired) {
+                localKeys.remove(key);
+            }
+        }
+        if (!acquired) {
+            return null;
+        }
+        Lease lease = new Lease(key);
+        heldLeases.put(key, lease);
+        return lease;
+    }
+
+    private void renewLeases() {
+        for (Lease lease : heldLeases.values()) {
+            synchronized (renewLock) {
+                if (heldLeases.get(lease.getKey()) != lease) {
+                    // released in the meantime
+                    continue;
+                }
+                try {
+                    if (!coordinator.renew(lease.getKey(), owner, leaseMillis)) {
+                        log.warn("The lease " + lease.getKey() + " was taken over by another node");
+                        lease.lost = true;
+                        heldLeases.remove(lease.getKey(), lease);
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to renew the lease " + lease.getKey(), e);
+                }
+            }
+        }
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    @Getter
+    public static class Lease {
+        private final String key;
+        // true once another node took over the lease, whatever it protects must not be finished any longer
+        private volatile boolean lost;
+
+        private Lease(String key) {
+            this.key = key;
+        }
+    }
+
+}
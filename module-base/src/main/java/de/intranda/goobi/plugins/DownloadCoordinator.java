@@ -0,0 +1,61 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+/**
+ * Backend that grants time limited leases shared by all Goobi nodes. A lease is identified by a key and owned by at most one owner until it expires
+ * or is released. Expiry times are based on the clocks of the nodes, which therefore need to be synchronized.
+ */
+public interface DownloadCoordinator {
+
+    /**
+     * try to acquire the lease, or to renew it if it is already owned by the same owner
+     * 
+     * @param key key of the lease
+     * @param owner unique id of the requesting owner
+     * @param durationMillis how long the lease shall be valid
+     * @return true if the owner holds the lease now, false if another owner holds a valid lease
+     * @throws IOException if the backend could not be accessed
+     */
+    boolean tryAcquire(String key, String owner, long durationMillis) throws IOException;
+
+    /**
+     * extend a lease that is still owned by the owner, a lease that does not exist any longer is never created again
+     * 
+     * @param key key of the lease
+     * @param owner unique id of the owner
+     * @param durationMillis how long the lease shall be valid from now on
+     * @return true if the lease was extended, false if it was released or taken over by another owner
+     * @throws IOException if the backend could not be accessed
+     */
+    boolean renew(String key, String owner, long durationMillis) throws IOException;
+
+    /**
+     * release the lease if it is still owned by the owner
+     * 
+     * @param key key of the lease
+     * @param owner unique id of the owner
+     * @throws IOException if the backend could not be accessed
+     */
+    void release(String key, String owner) throws IOException;
+
+}
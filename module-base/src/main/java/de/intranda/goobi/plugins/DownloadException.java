@@ -0,0 +1,58 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+import lombok.Getter;
+
+/**
+ * Exception signalling that the source system answered a download request with an unexpected HTTP status code.
+ */
+public class DownloadException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    @Getter
+    private final int statusCode;
+
+    public DownloadException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * check whether the status code indicates a problem of the server itself rather than of the requested file
+     * 
+     * @return true for 429 Too Many Requests and all 5xx status codes, false otherwise
+     */
+    public boolean isMirrorFailure() {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * check whether the status code asks the client to send fewer requests
+     * 
+     * @return true for 429 Too Many Requests and 503 Service Unavailable, false otherwise
+     */
+    public boolean isOverload() {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+}
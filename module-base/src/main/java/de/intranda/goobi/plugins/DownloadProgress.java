@@ -0,0 +1,245 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Progress of one run of the plugin. The counters are updated by the download streams without locking, rate and remaining time are only derived
+ * when a snapshot is requested. The progress of all running steps can be looked up by the id of their process.
+ */
+public class DownloadProgress {
+
+    // process id -> progress of the step that is currently downloading the files of this process
+    private static final Map<Integer, DownloadProgress> RUNNING = new ConcurrentHashMap<>();
+
+    // weight of the latest sample in the current rate
+    private static final double RATE_WEIGHT = 0.5;
+    // minimum time between two samples of the rate
+    private static final long SAMPLE_MILLIS = 1000;
+
+    private final int filesTotal;
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicInteger filesStarted = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final AtomicLong bytesExpected = new AtomicLong();
+    private final AtomicLong bytesCompleted = new AtomicLong();
+    // source of the current time in milliseconds
+    private final LongSupplier clock;
+    private final long startTime;
+
+    private long lastSampleTime;
+    private long lastSampleBytes;
+    private double bytesPerSecond = -1;
+
+    /**
+     * 
+     * @param filesTotal number of files that shall be downloaded and verified
+     */
+    public DownloadProgress(int filesTotal) {
+        this(filesTotal, System::currentTimeMillis);
+    }
+
+    /**
+     * 
+     * @param filesTotal number of files that shall be downloaded and verified
+     * @param clock source of the current time in milliseconds
+     */
+    DownloadProgress(int filesTotal, LongSupplier clock) {
+        this.filesTotal = filesTotal;
+        this.clock = clock;
+        this.startTime = clock.getAsLong();
+        this.lastSampleTime = startTime;
+    }
+
+    /**
+     * get the progress of the step that is currently downloading the files of a process
+     * 
+     * @param processId id of the process
+     * @return the progress, or null if no download is running for this process
+     */
+    public static DownloadProgress getProgress(int processId) {
+        return RUNNING.get(processId);
+    }
+
+    /**
+     * make this progress available via {@link #getProgress(int)}, it must be removed again with {@link #unregister(int)} when the download ends
+     * 
+     * @param processId id of the process
+     */
+    public void register(int processId) {
+        RUNNING.put(processId, this);
+    }
+
+    /**
+     * remove this progress from the running ones, a progress registered for the same process in the meantime is kept
+     * 
+     * @param processId id of the process
+     */
+    public void unregister(int processId) {
+        RUNNING.remove(processId, this);
+    }
+
+    /**
+     * count a file as downloaded and verified
+     */
+    public void fileDone() {
+        filesDone.incrementAndGet();
+    }
+
+    /**
+     * start the transfer of one file
+     * 
+     * @param expectedBytes size of the file, or -1 if it is unknown
+     * @return the transfer that counts the bytes of this file
+     */
+    public Transfer startTransfer(long expectedBytes) {
+        filesStarted.incrementAndGet();
+        if (expectedBytes > 0) {
+            bytesExpected.addAndGet(expectedBytes);
+        }
+        return new Transfer(expectedBytes);
+    }
+
+    /**
+     * get the current state of the progress
+     * 
+     * @return an immutable snapshot
+     */
+    public synchronized Snapshot getSnapshot() {
+        long now = clock.getAsLong();
+        long bytes = bytesDone.get();
+        if (now - lastSampleTime >= SAMPLE_MILLIS) {
+            double sample = (bytes - lastSampleBytes) * 1000.0 / (now - lastSampleTime);
+            bytesPerSecond = bytesPerSecond < 0 ? sample : (1 - RATE_WEIGHT) * bytesPerSecond + RATE_WEIGHT * sample;
+            lastSampleTime = now;
+            lastSampleBytes = bytes;
+        }
+        double rate = bytesPerSecond >= 0 ? bytesPerSecond : bytes * 1000.0 / Math.max(now - startTime, 1);
+
+        // the size of the remaining files is extrapolated from the files whose size is already known
+        int started = filesStarted.get();
+        long expected = bytesExpected.get();
+        long remainingSeconds = -1;
+        if (started > 0 && expected > 0 && rate > 0) {
+            double remainingBytes = (double) expected / started * (filesTotal - filesDone.get()) - (bytes - bytesCompleted.get());
+            remainingSeconds = (long) (Math.max(remainingBytes, 0) / rate);
+        }
+        return new Snapshot(filesDone.get(), filesTotal, bytes, expected, (long) rate, remainingSeconds, now - startTime);
+    }
+
+    /**
+     * Counts the bytes of one file, the bytes are taken back if the transfer fails.
+     */
+    public class Transfer {
+        private final long expectedBytes;
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Transfer(long expectedBytes) {
+            this.expectedBytes = expectedBytes;
+        }
+
+        /**
+         * count transferred bytes, may be called by several threads
+         * 
+         * @param count number of bytes
+         */
+        public void addBytes(long count) {
+            bytes.addAndGet(count);
+            bytesDone.addAndGet(count);
+        }
+
+        /**
+         * mark the transfer as completed successfully
+         */
+        public void complete() {
+            bytesCompleted.addAndGet(bytes.get());
+        }
+
+        /**
+         * take back all bytes of this transfer, so that a retry does not count them twice
+         */
+        public void abort() {
+            filesStarted.decrementAndGet();
+            bytesDone.addAndGet(-bytes.getAndSet(0));
+            if (expectedBytes > 0) {
+                bytesExpected.addAndGet(-expectedBytes);
+            }
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Snapshot {
+        private int filesDone;
+        private int filesTotal;
+        private long bytesDone;
+        // sum of the sizes of all files whose size is known yet
+        private long bytesExpected;
+        private long bytesPerSecond;
+        // estimated remaining time, -1 if it cannot be estimated yet
+        private long remainingSeconds;
+        private long elapsedMillis;
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(filesDone).append(" of ").append(filesTotal).append(" files done, ");
+            sb.append(formatBytes(bytesDone)).append(" of ").append(formatBytes(bytesExpected)).append(" known so far, ");
+            sb.append(formatBytes(bytesPerSecond)).append("/s");
+            if (remainingSeconds >= 0) {
+                sb.append(", about ").append(formatDuration(remainingSeconds)).append(" remaining");
+            }
+            return sb.toString();
+        }
+
+        private static String formatBytes(long bytes) {
+            if (bytes < 1024) {
+                return bytes + " B";
+            }
+            String[] units = { "KB", "MB", "GB", "TB" };
+            double value = bytes;
+            int unit = -1;
+            while (value >= 1024 && unit < units.length - 1) {
+                value /= 1024;
+                unit++;
+            }
+            return String.format("%.1f %s", value, units[unit]);
+        }
+
+        private static String formatDuration(long seconds) {
+            if (seconds < 60) {
+                return seconds + " s";
+            }
+            if (seconds < 3600) {
+                return seconds / 60 + " min";
+            }
+            return seconds / 3600 + " h " + seconds % 3600 / 60 + " min";
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Slots for the requests against the source system. Every request waits for a slot of the limiter and, if the number of downloads of all nodes is
+ * limited, for a slot of the source system. The latency and the errors of the requests are reported back to the adaptive limit.
+ */
+public class DownloadSlots {
+
+    // limits the requests running at the same time
+    private final AdaptiveLimiter limiter;
+    // receives the latency and the overload of the requests, usually the same as the limiter
+    private final AdaptiveLimiter feedbackLimiter;
+    private final DownloadCoordination coordination;
+
+    /**
+     * 
+     * @param limiter limiter of the parallel downloads
+     * @param coordination coordination with other nodes that limits the downloads from the source system, may be null
+     */
+    public DownloadSlots(AdaptiveLimiter limiter, DownloadCoordination coordination) {
+        this(limiter, limiter, coordination);
+    }
+
+    private DownloadSlots(AdaptiveLimiter limiter, AdaptiveLimiter feedbackLimiter, DownloadCoordination coordination) {
+        this.limiter = limiter;
+        this.feedbackLimiter = feedbackLimiter;
+        this.coordination = coordination;
+    }
+
+    /**
+     * get the slots for the segments of one file. The segments get a budget of their own, so that they are downloaded in parallel even if only one
+     * file is downloaded at a time, but their latency and overload still adapt the limit of the parallel downloads.
+     * 
+     * @param segments number of segments that may be downloaded at the same time
+     * @return slots for the segment requests
+     */
+    public DownloadSlots forSegments(int segments) {
+        return new DownloadSlots(new AdaptiveLimiter("segments", segments, segments, false), feedbackLimiter, coordination);
+    }
+
+    /**
+     * wait for a free slot of the limiter and, if the number of downloads of all nodes is limited, for a slot of the source system
+     * 
+     * @return the slot of the source system, or null if the number of downloads of all nodes is not limited
+     * @throws IOException if the thread was interrupted or no slot of the source system became free in time
+     */
+    public DownloadCoordination.Lease acquire() throws IOException {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a free download slot", e);
+        }
+        if (coordination == null) {
+            return null;
+        }
+        try {
+            return coordination.acquireSourceSlot();
+        } catch (IOException e) {
+            limiter.release(false);
+            throw e;
+        }
+    }
+
+    /**
+     * release the slots acquired by {@link #acquire()}
+     * 
+     * @param sourceSlot slot of the source system, may be null
+     * @param success true if the request succeeded
+     */
+    public void release(DownloadCoordination.Lease sourceSlot, boolean success) {
+        releaseSourceSlot(sourceSlot);
+        limiter.release(success);
+    }
+
+    /**
+     * release only the slot of the source system, the slot of the limiter stays held until {@link #release(DownloadCoordination.Lease, boolean)}
+     * is called with null
+     * 
+     * @param sourceSlot slot of the source system, may be null
+     */
+    public void releaseSourceSlot(DownloadCoordination.Lease sourceSlot) {
+        if (coordination != null) {
+            coordination.release(sourceSlot);
+        }
+    }
+
+    /**
+     * report the time until the response headers of a request arrived
+     * 
+     * @param latencyMillis latency in milliseconds
+     */
+    public void reportLatency(long latencyMillis) {
+        feedbackLimiter.reportLatency(latencyMillis);
+    }
+
+    /**
+     * report a failed request, the limit is reduced if the source answered with 429 or 503 or did not answer in time
+     * 
+     * @param e cause of the failure
+     */
+    public void reportFailure(IOException e) {
+        // responses with an error status, or connect and socket timeouts
+        boolean overload = e instanceof DownloadException downloadException ? downloadException.isOverload() : e instanceof InterruptedIOException;
+        if (overload) {
+            feedbackLimiter.reportOverload();
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Coordinator that keeps every lease as a lock file in a folder on the shared storage. A lock file is created atomically and holds the owner and the
+ * expiry time of the lease. A valid own lease is renewed by atomically replacing its lock file, so that it never disappears. To take over an
+ * expired lease, the lock file is moved aside atomically and only replaced if it still holds the content that was read before, so that only one
+ * node can win. A lock file that was moved aside by mistake is linked back into place.
+ */
+public class FileLockCoordinator implements DownloadCoordinator {
+
+    private final Path folder;
+
+    /**
+     * 
+     * @param folder shared folder for the lock files, it is created if it does not exist yet
+     * @throws IOException if the folder could not be created
+     */
+    public FileLockCoordinator(Path folder) throws IOException {
+        this.folder = folder;
+        Files.createDirectories(folder);
+    }
+
+    @Override
+    public boolean tryAcquire(String key, String owner, long durationMillis) throws IOException {
+        Path lockFile = folder.resolve(key + ".lock");
+        String content = owner + "\n" + (System.currentTimeMillis() + durationMillis);
+        if (tryCreate(key, lockFile, content)) {
+            return true;
+        }
+
+        String existing = readLockFile(lockFile);
+        if (existing == null) {
+            // released in the meantime
+            return tryCreate(key, lockFile, content);
+        }
+        if (owner.equals(getOwner(existing))) {
+            return extend(key, lockFile, existing, content);
+        }
+        if (getExpiry(existing) >= System.currentTimeMillis()) {
+            return false;
+        }
+        // take over the expired lease
+        return tryReplace(key, lockFile, existing, content);
+    }
+
+    @Override
+    public boolean renew(String key, String owner, long durationMillis) throws IOException {
+        Path lockFile = folder.resolve(key + ".lock");
+        String existing = readLockFile(lockFile);
+        if (existing == null || !owner.equals(getOwner(existing))) {
+            return false;
+        }
+        return extend(key, lockFile, existing, owner + "\n" + (System.currentTimeMillis() + durationMillis));
+    }
+
+    @Override
+    public void release(String key, String owner) throws IOException {
+        Path lockFile = folder.resolve(key + ".lock");
+        String existing = readLockFile(lockFile);
+        if (existing != null && owner.equals(getOwner(existing))) {
+            Files.deleteIfExists(lockFile);
+        }
+    }
+
+    /**
+     * extend an own lease. A valid lease cannot be taken over by another node, so its lock file is replaced atomically and never disappears. An
+     * expired one may be taken over at any time and is only replaced if it was not taken over yet.
+     * 
+     * @param key key of the lease
+     * @param lockFile lock file of the own lease
+     * @param existing content of the lock file that was read before
+     * @param content new owner and expiry time
+     * @return true if the lease was extended, false if another node holds it now
+     * @throws IOException
+     */
+    private boolean extend(String key, Path lockFile, String existing, String content) throws IOException {
+        if (getExpiry(existing) < System.currentTimeMillis()) {
+            return tryReplace(key, lockFile, existing, content);
+        }
+        Path tempFile = folder.resolve(key + "." + UUID.randomUUID() + ".tmp");
+        Files.writeString(tempFile, content, StandardCharsets.UTF_8);
+        try {
+            Files.move(tempFile, lockFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return true;
+    }
+
+    /**
+     * create the lock file atomically together with its content, by linking it to a completely written temporary file
+     * 
+     * @param key key of the lease
+     * @param lockFile lock file that shall be created
+     * @param content owner and expiry time
+     * @return true if the lock file was created, false if it exists already
+     * @throws IOException
+     */
+    private boolean tryCreate(String key, Path lockFile, String content) throws IOException {
+        Path tempFile = folder.resolve(key + "." + UUID.randomUUID() + ".tmp");
+        Files.writeString(tempFile, content, StandardCharsets.UTF_8);
+        try {
+            Files.createLink(lockFile, tempFile);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * replace the lock file if it still has the given content. The lock file is moved aside first, which can only succeed for one node. If the file
+     * that was moved aside is not the expected one, another node replaced it in the meantime, and it is given back.
+     * 
+     * @param key key of the lease
+     * @param lockFile lock file that shall be replaced
+     * @param existing content of the lock file that was read before
+     * @param content new owner and expiry time
+     * @return true if the lock file was replaced, false if another node holds the lease now
+     * @throws IOException
+     */
+    private boolean tryReplace(String key, Path lockFile, String existing, String content) throws IOException {
+        Path asideFile = folder.resolve(key + "." + UUID.randomUUID() + ".aside");
+        try {
+            Files.move(lockFile, asideFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (existing.equals(readLockFile(asideFile))) {
+            Files.deleteIfExists(asideFile);
+            return tryCreate(key, lockFile, content);
+        }
+        // another node took over the lease in the meantime, give it back unless the lock file was created again already
+        try {
+            Files.createLink(lockFile, asideFile);
+        } catch (FileAlreadyExistsException e) {
+            // the lease of the other node is lost, it notices this when it renews the lease
+        } finally {
+            Files.deleteIfExists(asideFile);
+        }
+        return false;
+    }
+
+    private String readLockFile(Path lockFile) throws IOException {
+        try {
+            return Files.readString(lockFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private String getOwner(String content) {
+        return content.lines().findFirst().orElse("");
+    }
+
+    private long getExpiry(String content) {
+        List<String> lines = content.lines().toList();
+        try {
+            return lines.size() > 1 ? Long.parseLong(lines.get(1).trim()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * Keeps track of the health and latency of all configured download url templates. Healthy mirrors are ordered by their average latency, mirrors
+ * that failed recently are put aside for a cooldown period and only used as a last resort.
+ */
+public class MirrorPool {
+
+    // weight of the latest measurement in the average latency
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private final List<Mirror> mirrors = new ArrayList<>();
+    private final long cooldownMillis;
+
+    /**
+     * 
+     * @param urlTemplates download url templates containing the placeholder {FILEID}, the first one is the primary url
+     * @param cooldownMillis how long a failed mirror shall be put aside
+     */
+    public MirrorPool(List<String> urlTemplates, long cooldownMillis) {
+        for (String urlTemplate : urlTemplates) {
+            mirrors.add(new Mirror(urlTemplate));
+        }
+        this.cooldownMillis = cooldownMillis;
+    }
+
+    /**
+     * get all mirrors in the order in which they shall be tried. Available mirrors come first, ordered by their average latency, mirrors that were
+     * not measured yet are tried before all measured ones. Mirrors in cooldown follow, the one that becomes available first comes first.
+     * 
+     * @return ordered list of all mirrors
+     */
+    public synchronized List<Mirror> getOrderedMirrors() {
+        long now = System.currentTimeMillis();
+        List<Mirror> available = new ArrayList<>();
+        List<Mirror> coolingDown = new ArrayList<>();
+        for (Mirror mirror : mirrors) {
+            if (mirror.unavailableUntil <= now) {
+                available.add(mirror);
+            } else {
+                coolingDown.add(mirror);
+            }
+        }
+        available.sort(Comparator.comparingDouble(m -> m.averageLatency));
+        coolingDown.sort(Comparator.comparingLong(m -> m.unavailableUntil));
+        available.addAll(coolingDown);
+        return available;
+    }
+
+    /**
+     * report a successful request
+     * 
+     * @param mirror mirror that answered the request
+     * @param latencyMillis time until the response arrived
+     */
+    public synchronized void reportSuccess(Mirror mirror, long latencyMillis) {
+        mirror.averageLatency = mirror.averageLatency == 0 ? latencyMillis : (1 - LATENCY_WEIGHT) * mirror.averageLatency + LATENCY_WEIGHT * latencyMillis;
+        mirror.consecutiveFailures = 0;
+        mirror.unavailableUntil = 0;
+    }
+
+    /**
+     * report a failed request, the mirror is put aside for the cooldown period, which doubles with every further consecutive failure
+     * 
+     * @param mirror mirror that failed
+     */
+    public synchronized void reportFailure(Mirror mirror) {
+        int exponent = Math.min(mirror.consecutiveFailures, 4);
+        mirror.consecutiveFailures++;
+        mirror.unavailableUntil = System.currentTimeMillis() + (cooldownMillis << exponent);
+    }
+
+    /**
+     * report whether a mirror announced support for byte ranges in its last response
+     * 
+     * @param mirror mirror that answered a request
+     * @param supported true if the mirror accepts ranged requests
+     */
+    public synchronized void reportRangeSupport(Mirror mirror, boolean supported) {
+        mirror.rangesSupported = supported;
+    }
+
+    public static class Mirror {
+        @Getter
+        private final String urlTemplate;
+        private double averageLatency;
+        private int consecutiveFailures;
+        private long unavailableUntil;
+        // true once the mirror announced that it accepts ranged requests
+        @Getter
+        private volatile boolean rangesSupported;
+
+        private Mirror(String urlTemplate) {
+            this.urlTemplate = urlTemplate;
+        }
+
+        /**
+         * get the url of a file on this mirror
+         * 
+         * @param fileId FILEID of the file
+         * @return url of the file
+         */
+        public String getUrl(String fileId) {
+            return urlTemplate.replace("{FILEID}", fileId);
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Calculates several checksums of the same bytes in one pass. Algorithms are named as in BagIt manifests, e.g. sha256, sha512 or md5. SHA-256 is
+ * always calculated, since it is used to verify the files.
+ */
+public class MultiDigest {
+
+    public static final String SHA256 = "sha256";
+
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+    /**
+     * 
+     * @param algorithms names of the additional algorithms
+     * @throws IllegalArgumentException if an algorithm is not supported
+     */
+    public MultiDigest(Collection<String> algorithms) {
+        addAlgorithm(SHA256);
+        for (String algorithm : algorithms) {
+            addAlgorithm(algorithm);
+        }
+    }
+
+    /**
+     * check whether an algorithm is supported
+     * 
+     * @param algorithm name of the algorithm as used in BagIt manifests
+     * @return true if checksums of this algorithm can be calculated
+     */
+    public static boolean isSupported(String algorithm) {
+        try {
+            MessageDigest.getInstance(getJavaName(algorithm));
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /**
+     * add bytes to all checksums
+     * 
+     * @param buffer array holding the bytes
+     * @param offset position of the first byte
+     * @param length number of bytes
+     */
+    public void update(byte[] buffer, int offset, int length) {
+        for (MessageDigest digest : digests.values()) {
+            digest.update(buffer, offset, length);
+        }
+    }
+
+    /**
+     * add all remaining bytes of the stream to all checksums
+     * 
+     * @param in stream that shall be read, it is not closed
+     * @throws IOException
+     */
+    public void update(InputStream in) throws IOException {
+        byte[] buffer = new byte[65536];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            update(buffer, 0, n);
+        }
+    }
+
+    /**
+     * finish the calculation, afterwards no further bytes may be added
+     * 
+     * @return map between the names of the algorithms and the checksums as lower case hex strings
+     */
+    public Map<String, String> getChecksums() {
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+            checksums.put(entry.getKey(), HexFormat.of().formatHex(entry.getValue().digest()));
+        }
+        return checksums;
+    }
+
+    private void addAlgorithm(String algorithm) {
+        String name = algorithm.toLowerCase(Locale.ROOT);
+        if (digests.containsKey(name)) {
+            return;
+        }
+        try {
+            digests.put(name, MessageDigest.getInstance(getJavaName(name)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+        }
+    }
+
+    /**
+     * translate the name used in BagIt manifests into the name of the java security provider, e.g. sha512 into SHA-512
+     */
+    private static String getJavaName(String algorithm) {
+        String name = algorithm.toUpperCase(Locale.ROOT);
+        if (name.matches("SHA\\d+")) {
+            return "SHA-" + name.substring(3);
+        }
+        return name;
+    }
+
+}
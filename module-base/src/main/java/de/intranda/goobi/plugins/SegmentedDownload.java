@@ -0,0 +1,250 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Downloads a single file in several byte ranges in parallel. The target file is preallocated and every segment is written to its own position, so
+ * no segment needs to be buffered or copied afterwards. Segments are spread over all mirrors, if a segment fails it is retried on the next mirror.
+ * The segment requests have a budget of their own, but every one of them takes a slot of the source system and adapts the limit of the parallel
+ * downloads.
+ */
+@Log4j2
+public class SegmentedDownload {
+
+    private static Pattern contentRangePattern = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private final String authenticationToken;
+    private final MirrorPool mirrorPool;
+    private final int segments;
+    private final RequestConfig requestConfig;
+    private final DownloadSlots slots;
+
+    /**
+     * 
+     * @param authenticationToken value of the Authorization header, may be blank
+     * @param mirrorPool mirrors the segments shall be downloaded from
+     * @param segments number of segments that shall be downloaded in parallel
+     * @param requestConfig configuration of the segment requests, e.g. their timeouts
+     * @param downloadSlots slots of the parallel downloads, the segments get a budget of their own from them
+     */
+    public SegmentedDownload(String authenticationToken, MirrorPool mirrorPool, int segments, RequestConfig requestConfig,
+            DownloadSlots downloadSlots) {
+        this.authenticationToken = authenticationToken;
+        this.mirrorPool = mirrorPool;
+        this.segments = segments;
+        this.requestConfig = requestConfig;
+        this.slots = downloadSlots.forSegments(segments);
+    }
+
+    /**
+     * get the total size of the file from the Content-Range header of a 206 response to a request for the first bytes of the file
+     * 
+     * @param response response with status code 206
+     * @param requestedLength number of bytes that were requested
+     * @return total size of the file in bytes, if it is smaller than the requested length the response holds the complete file
+     * @throws IOException if the Content-Range header is missing or the total size cannot be determined
+     */
+    public static long getTotalSize(HttpResponse response, long requestedLength) throws IOException {
+        Header header = response.getFirstHeader("Content-Range");
+        Matcher m = header == null ? null : contentRangePattern.matcher(header.getValue());
+        if (m == null || !m.matches() || Long.parseLong(m.group(1)) != 0) {
+            throw new IOException("Invalid Content-Range in partial response: " + header);
+        }
+        long end = Long.parseLong(m.group(2));
+        if (!"*".equals(m.group(3))) {
+            return Long.parseLong(m.group(3));
+        }
+        if (end + 1 < requestedLength) {
+            // the server delivered less than requested, so this is the whole file
+            return end + 1;
+        }
+        throw new IOException("Unknown total size in partial response: " + header);
+    }
+
+    /**
+     * download the file into the destination
+     * 
+     * @param fileId FILEID of the file
+     * @param totalSize size of the file in bytes
+     * @param destination local path the file shall be saved to
+     * @param transfer transfer that counts the downloaded bytes
+     * @throws IOException if any segment could not be downloaded from any mirror
+     */
+    public void download(String fileId, long totalSize, Path destination, DownloadProgress.Transfer transfer) throws IOException {
+        long segmentSize = (totalSize + segments - 1) / segments;
+        List<MirrorPool.Mirror> mirrors = mirrorPool.getOrderedMirrors();
+
+        ExecutorService executor = Executors.newFixedThreadPool(segments);
+        try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw");
+                CloseableHttpClient httpclient = HttpClientBuilder.create()
+                        .setMaxConnPerRoute(segments)
+                        .setMaxConnTotal(segments)
+                        .setDefaultRequestConfig(requestConfig)
+                        .build()) {
+            file.setLength(totalSize);
+            FileChannel channel = file.getChannel();
+
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < segments; ++i) {
+                long start = i * segmentSize;
+                long end = Math.min(start + segmentSize, totalSize) - 1;
+                if (start > end) {
+                    break;
+                }
+                int firstMirror = i;
+                futures.add(executor.submit(() -> {
+                    downloadSegment(httpclient, channel, mirrors, firstMirror, fileId, start, end, transfer);
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ioException ? ioException : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Segmented download was interrupted: " + destination, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * download one segment, trying all mirrors starting with the given one
+     * 
+     * @param httpclient client shared by all segments
+     * @param channel channel of the preallocated target file
+     * @param mirrors available mirrors
+     * @param firstMirror index of the mirror that shall be tried first
+     * @param fileId FILEID of the file
+     * @param start first byte of the segment
+     * @param end last byte of the segment
+     * @param transfer transfer that counts the downloaded bytes
+     * @throws IOException if the segment could not be downloaded from any mirror
+     */
+    private void downloadSegment(CloseableHttpClient httpclient, FileChannel channel, List<MirrorPool.Mirror> mirrors, int firstMirror, String fileId,
+            long start, long end, DownloadProgress.Transfer transfer) throws IOException {
+        IOException lastException = null;
+        for (int i = 0; i < mirrors.size(); ++i) {
+            MirrorPool.Mirror mirror = mirrors.get((firstMirror + i) % mirrors.size());
+            try {
+                downloadSegment(httpclient, channel, mirror, fileId, start, end, transfer);
+                return;
+            } catch (IOException e) {
+                log.warn("Failed to download bytes " + start + "-" + end + " from " + mirror.getUrl(fileId) + ": " + e.getMessage());
+                lastException = e;
+            }
+        }
+        throw lastException != null ? lastException : new IOException("No mirror available for the file " + fileId);
+    }
+
+    private void downloadSegment(CloseableHttpClient httpclient, FileChannel channel, MirrorPool.Mirror mirror, String fileId, long start, long end,
+            DownloadProgress.Transfer transfer) throws IOException {
+        HttpPost method = new HttpPost(mirror.getUrl(fileId));
+        if (StringUtils.isNotBlank(authenticationToken)) {
+            method.setHeader("Authorization", authenticationToken);
+        }
+        method.setHeader("Range", "bytes=" + start + "-" + end);
+        method.setHeader("Accept-Encoding", "identity");
+
+        DownloadCoordination.Lease sourceSlot = slots.acquire();
+        boolean success = false;
+        long requestStart = System.currentTimeMillis();
+        try (CloseableHttpResponse response = httpclient.execute(method)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            Header contentRange = response.getFirstHeader("Content-Range");
+            if (statusCode != 206 || contentRange == null || !contentRange.getValue().startsWith("bytes " + start + "-" + end + "/")) {
+                throw new DownloadException("Unexpected response " + response.getStatusLine() + " (" + contentRange + ") for bytes " + start + "-"
+                        + end, statusCode);
+            }
+            long latency = System.currentTimeMillis() - requestStart;
+            mirrorPool.reportSuccess(mirror, latency);
+            slots.reportLatency(latency);
+
+            long position = start;
+            byte[] buffer = new byte[65536];
+            try (InputStream in = response.getEntity().getContent()) {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, (int) Math.min(n, end + 1 - position));
+                    while (byteBuffer.hasRemaining()) {
+                        int written = channel.write(byteBuffer, position);
+                        position += written;
+                        transfer.addBytes(written);
+                    }
+                    if (position > end) {
+                        break;
+                    }
+                }
+                if (position != end + 1) {
+                    throw new IOException("Segment ended after " + (position - start) + " of " + (end + 1 - start) + " bytes");
+                }
+            } catch (IOException e) {
+                // the segment is downloaded again from the next mirror
+                transfer.addBytes(start - position);
+                throw e;
+            }
+            success = true;
+        } catch (DownloadException e) {
+            if (e.isMirrorFailure()) {
+                mirrorPool.reportFailure(mirror);
+            }
+            slots.reportFailure(e);
+            throw e;
+        } catch (IOException e) {
+            mirrorPool.reportFailure(mirror);
+            slots.reportFailure(e);
+            throw e;
+        } finally {
+            slots.release(sourceSlot, success);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testFixedLimitStaysAtMaximum() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 4, false);
+        assertEquals(4, limiter.getLimit());
+        limiter.acquire();
+        limiter.reportOverload();
+        limiter.release(true);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitGrowsWhileItIsReached() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 3, true);
+        assertEquals(1, limiter.getLimit());
+        limiter.acquire();
+        limiter.release(true);
+        assertEquals(2, limiter.getLimit());
+        // a single request does not reach the limit of two, so it says nothing about the capacity
+        limiter.acquire();
+        limiter.release(true);
+        assertEquals(2, limiter.getLimit());
+        for (int i = 0; i < 10; ++i) {
+            limiter.acquire();
+            limiter.acquire();
+            limiter.release(true);
+            limiter.release(true);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void testOverloadHalvesLimitOncePerRound() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 2, 16, true);
+        limiter.acquire();
+        limiter.acquire();
+        int inFlight = 2;
+        // every finished request is replaced by new ones as far as the limit allows
+        for (int i = 0; i < 1000; ++i) {
+            limiter.release(true);
+            inFlight--;
+            while (inFlight < limiter.getLimit()) {
+                limiter.acquire();
+                inFlight++;
+            }
+        }
+        assertEquals(16, limiter.getLimit());
+        limiter.reportOverload();
+        assertEquals(8, limiter.getLimit());
+        // the other requests that were running at the same time report the same overload
+        limiter.reportOverload();
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testRisingLatencyReducesLimit() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 8, true);
+        for (int i = 0; i < 100; ++i) {
+            limiter.acquire();
+            limiter.reportLatency(10);
+            limiter.release(true);
+            if (limiter.getLimit() > 1) {
+                break;
+            }
+        }
+        assertEquals(2, limiter.getLimit());
+        for (int i = 0; i < 20; ++i) {
+            limiter.reportLatency(10);
+        }
+        assertEquals(2, limiter.getLimit());
+        for (int i = 0; i < 10; ++i) {
+            limiter.reportLatency(1000);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+}
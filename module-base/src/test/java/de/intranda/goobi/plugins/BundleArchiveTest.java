@@ -0,0 +1,198 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+public class BundleArchiveTest {
+
+    private static final String LONG_NAME = "bundle/" + "a".repeat(120) + ".pdf";
+
+    @Test
+    public void testZipEntriesAreExtracted() throws IOException {
+        byte[] first = createContent(100);
+        byte[] second = createContent(1024);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("107.pdf"));
+            zip.write(first);
+            zip.putNextEntry(new ZipEntry("folder/"));
+            zip.putNextEntry(new ZipEntry("folder/108"));
+            zip.write(second);
+        }
+
+        Map<String, byte[]> entries = extract(archive.toByteArray());
+        // the directory is not passed to the handler
+        assertEquals(List.of("107.pdf", "folder/108"), List.copyOf(entries.keySet()));
+        assertArrayEquals(first, entries.get("107.pdf"));
+        assertArrayEquals(second, entries.get("folder/108"));
+    }
+
+    @Test
+    public void testTarEntriesAtBlockBoundaries() throws IOException {
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        for (int size : new int[] { 0, 1, 511, 512, 513, 1024 }) {
+            byte[] content = createContent(size);
+            expected.put("file-" + size, content);
+            writeTarEntry(archive, "file-" + size, "", '0', content);
+        }
+        finishTar(archive);
+
+        assertEntries(expected, extract(archive.toByteArray()));
+    }
+
+    @Test
+    public void testGzipCompressedTarIsExtracted() throws IOException {
+        byte[] content = createContent(2000);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, "107.tif", "", '0', content);
+        finishTar(archive);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(archive.toByteArray());
+        }
+
+        assertEntries(Map.of("107.tif", content), extract(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testGnuLongNameIsUsed() throws IOException {
+        byte[] content = createContent(600);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, "././@LongLink", "", 'L', (LONG_NAME + "\0").getBytes(StandardCharsets.UTF_8));
+        writeTarEntry(archive, LONG_NAME.substring(0, 100), "", '0', content);
+        // the long name only applies to the entry that follows it
+        writeTarEntry(archive, "108.pdf", "", '0', content);
+        finishTar(archive);
+
+        assertEntries(Map.of(LONG_NAME, content, "108.pdf", content), extract(archive.toByteArray()));
+    }
+
+    @Test
+    public void testPaxPathIsUsed() throws IOException {
+        byte[] content = createContent(600);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, "PaxHeaders/107", "", 'x', createPaxRecord("mtime", "1700000000.5") + createPaxRecord("path", LONG_NAME));
+        writeTarEntry(archive, "107.pdf", "", '0', content);
+        finishTar(archive);
+
+        assertEntries(Map.of(LONG_NAME, content), extract(archive.toByteArray()));
+    }
+
+    @Test
+    public void testUstarPrefixIsUsed() throws IOException {
+        byte[] content = createContent(10);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, "107.pdf", "bundle/thesis", '0', content);
+        // directories are ignored
+        writeTarEntry(archive, "bundle/", "", '5', new byte[0]);
+        finishTar(archive);
+
+        assertEntries(Map.of("bundle/thesis/107.pdf", content), extract(archive.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedTarEntryFails() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, "107.pdf", "", '0', createContent(1024));
+        finishTar(archive);
+
+        extract(Arrays.copyOf(archive.toByteArray(), 700));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTarWithoutEndFails() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, "107.pdf", "", '0', createContent(1024));
+
+        extract(archive.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedZipEntryFails() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("107.pdf"));
+            zip.write(createContent(10000));
+        }
+
+        extract(Arrays.copyOf(archive.toByteArray(), 5000));
+    }
+
+    private static Map<String, byte[]> extract(byte[] archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        BundleArchive.extract(new ByteArrayInputStream(archive), (name, content) -> entries.put(name, content.readAllBytes()));
+        return entries;
+    }
+
+    private static void assertEntries(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * write a TAR header with the given name, prefix and type followed by the content, padded to full blocks. The fields not read by the archive
+     * are left empty.
+     */
+    private static void writeTarEntry(ByteArrayOutputStream archive, String name, String prefix, char type, byte[] content) throws IOException {
+        byte[] header = new byte[512];
+        putField(header, 0, 100, name);
+        putField(header, 124, 12, String.format("%011o", content.length));
+        header[156] = (byte) type;
+        putField(header, 257, 6, "ustar");
+        putField(header, 263, 2, "00");
+        putField(header, 345, 155, prefix);
+        archive.write(header);
+        archive.write(content);
+        archive.write(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    private static void writeTarEntry(ByteArrayOutputStream archive, String name, String prefix, char type, String content) throws IOException {
+        writeTarEntry(archive, name, prefix, type, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void finishTar(ByteArrayOutputStream archive) throws IOException {
+        archive.write(new byte[1024]);
+    }
+
+    private static void putField(byte[] header, int offset, int length, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+
+    /**
+     * create a pax record, its length includes the length field itself
+     */
+    private static String createPaxRecord(String keyword, String value) {
+        String record = " " + keyword + "=" + value + "\n";
+        int length = record.length();
+        while (String.valueOf(length).length() + record.length() != length) {
+            length = String.valueOf(length).length() + record.length();
+        }
+        return length + record;
+    }
+
+}
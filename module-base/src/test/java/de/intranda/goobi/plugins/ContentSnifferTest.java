@@ -0,0 +1,72 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ContentSnifferTest {
+
+    private static final byte[] PNG = { (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D };
+    private static final byte[] ZIP = { 'P', 'K', 3, 4, 20, 0 };
+    private static final byte[] HEIC = { 0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'h', 'e', 'i', 'c', 0, 0, 0, 0, 'm', 'i', 'f', '1', 'h', 'e', 'i', 'c' };
+
+    @Test
+    public void testDetectedTypeWinsOverContentType() {
+        assertEquals(".png", ContentSniffer.getExtension(PNG, "application/octet-stream"));
+        assertEquals(".png", ContentSniffer.getExtension(PNG, "image/jpeg"));
+        assertEquals(".pdf", ContentSniffer.getExtension("%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII), null));
+    }
+
+    @Test
+    public void testContentTypeNamesFormatOfContainer() {
+        assertEquals(".epub", ContentSniffer.getExtension(ZIP, "application/epub+zip"));
+        assertEquals(".zip", ContentSniffer.getExtension(ZIP, "application/octet-stream"));
+    }
+
+    @Test
+    public void testBrandOfIsoMediaFileIsUsed() {
+        assertEquals(".heic", ContentSniffer.getExtension(HEIC, "image/heic"));
+        assertEquals(".heic", ContentSniffer.getExtension(HEIC, null));
+        assertEquals(".mp4", ContentSniffer.getExtension(createFtyp("mp42"), null));
+        assertEquals(".avif", ContentSniffer.getExtension(createFtyp("avif"), "application/octet-stream"));
+        assertEquals(".mov", ContentSniffer.getExtension(createFtyp("qt  "), "video/mp4"));
+        // unknown brands are not guessed, the Content-Type is used instead
+        assertEquals(".jxl", ContentSniffer.getExtension(createFtyp("jxl "), "image/jxl"));
+        assertEquals("", ContentSniffer.getExtension(createFtyp("crx "), null));
+    }
+
+    @Test
+    public void testContentTypeIsMapped() {
+        byte[] unknown = { 1, 2, 3 };
+        assertEquals(".jpg", ContentSniffer.getExtension(unknown, "image/jpeg; charset=binary"));
+        assertEquals(".tif", ContentSniffer.getExtension(unknown, "IMAGE/TIFF"));
+        assertEquals(".heic", ContentSniffer.getExtension(unknown, "image/heic"));
+        assertEquals("", ContentSniffer.getExtension(unknown, "application/octet-stream"));
+        assertEquals("", ContentSniffer.getExtension(unknown, "application/vnd.ms-powerpoint"));
+        assertEquals("", ContentSniffer.getExtension(unknown, null));
+    }
+
+    @Test
+    public void testPeekDoesNotConsumeStream() throws IOException {
+        byte[] content = new byte[100000];
+        System.arraycopy(PNG, 0, content, 0, PNG.length);
+        try (InputStream in = new BufferedInputStream(new ByteArrayInputStream(content))) {
+            assertEquals("image/png", ContentSniffer.detect(ContentSniffer.peek(in)));
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    private static byte[] createFtyp(String brand) {
+        byte[] head = { 0, 0, 0, 0x14, 'f', 't', 'y', 'p', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+        System.arraycopy(brand.getBytes(StandardCharsets.US_ASCII), 0, head, 8, 4);
+        return head;
+    }
+
+}
@@ -0,0 +1,156 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.goobi.beans.GoobiProperty;
+import org.goobi.production.enums.PluginReturnValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.metadaten.MetadatenHelper;
+import de.sub.goobi.persistence.managers.MetadataManager;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import de.sub.goobi.persistence.managers.PropertyManager;
+import io.goobi.workflow.api.connection.HttpUtils;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ MetadatenHelper.class, VariableReplacer.class, ConfigurationHelper.class, ProcessManager.class, MetadataManager.class, Helper.class,
+        HttpUtils.class, PropertyManager.class })
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*", "com.sun.net.httpserver.*",
+        "sun.net.httpserver.*" })
+public class DownloadAndVerifyAssetsBundleTest extends DownloadAndVerifyAssetsTestBase {
+
+    private Map<String, byte[]> contents = new ConcurrentHashMap<>();
+    // FILEIDs requested one by one
+    private Set<String> singleRequests = ConcurrentHashMap.newKeySet();
+    private AtomicInteger bundleRequests = new AtomicInteger();
+
+    @Test
+    public void testEntriesAreMatchedByFileId() throws Exception {
+        createFiles("107", "107.v2", "108");
+        Map<String, byte[]> entries = Map.of("bundle/107.pdf", contents.get("107"), "bundle/107.v2.pdf", contents.get("107.v2"), "108.pdf",
+                contents.get("108"));
+        serveBundle(entries);
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertEquals(1, bundleRequests.get());
+        assertEquals(Set.of(), singleRequests);
+        // the FILEID 107 must not claim the entry of 107.v2
+        assertArrayEquals(contents.get("107"), Files.readAllBytes(getMasterFolder().resolve("107.pdf")));
+        assertArrayEquals(contents.get("107.v2"), Files.readAllBytes(getMasterFolder().resolve("107.v2.pdf")));
+        assertArrayEquals(contents.get("108"), Files.readAllBytes(getMasterFolder().resolve("108.pdf")));
+    }
+
+    @Test
+    public void testMissingAndCorruptEntriesAreDownloadedOneByOne() throws Exception {
+        createFiles("107", "108", "109");
+        // 108 is missing, 109 does not match its checksum
+        Map<String, byte[]> entries = Map.of("107.pdf", contents.get("107"), "109.pdf", "corrupt".getBytes(StandardCharsets.UTF_8));
+        serveBundle(entries);
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertEquals(1, bundleRequests.get());
+        assertEquals(Set.of("108", "109"), singleRequests);
+        for (String fileId : List.of("107", "108", "109")) {
+            assertArrayEquals(contents.get(fileId), Files.readAllBytes(getMasterFolder().resolve(fileId + ".pdf")));
+        }
+        // no temporary file of the corrupt entry is left behind
+        try (Stream<Path> files = Files.list(getMasterFolder())) {
+            assertEquals(3, files.count());
+        }
+    }
+
+    @Test
+    public void testEntryWithoutExtensionIsSniffed() throws Exception {
+        createFiles("107");
+        serveBundle(Map.of("107", contents.get("107")));
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertEquals(Set.of(), singleRequests);
+        assertArrayEquals(contents.get("107"), Files.readAllBytes(getMasterFolder().resolve("107.pdf")));
+    }
+
+    /**
+     * create a PDF file and its properties for every FILEID
+     *
+     * @param fileIds FILEIDs of the files
+     */
+    private void createFiles(String... fileIds) throws Exception {
+        List<GoobiProperty> props = new ArrayList<>();
+        int id = 1;
+        for (String fileId : fileIds) {
+            byte[] content = ("%PDF-1.4 content of the file " + fileId).getBytes(StandardCharsets.UTF_8);
+            contents.put(fileId, content);
+            props.add(createProperty(id++, "AttachmentIDSplitted", fileId));
+            props.add(createProperty(id++, "AttachmentHashSplitted", sha256(content)));
+        }
+        process.setEigenschaften(props);
+    }
+
+    /**
+     * serve the bundle with the given entries and all single files from the embedded server and configure the plugin to use the bundle
+     *
+     * @param entries name -> content of the entries of the bundle
+     */
+    private void serveBundle(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+            }
+        }
+        startServer();
+        server.createContext("/thesis/106/files", exchange -> {
+            bundleRequests.incrementAndGet();
+            send(exchange, archive.toByteArray(), "bundle.zip");
+        });
+        server.createContext("/thesis/106/file/", exchange -> {
+            String fileId = exchange.getRequestURI().getPath().substring("/thesis/106/file/".length());
+            singleRequests.add(fileId);
+            send(exchange, contents.get(fileId), fileId + ".pdf");
+        });
+        writePluginConfiguration("        <bundleUrl>" + getServerUrl() + "/thesis/{meta.ThesisId}/files?ids={FILEIDS}</bundleUrl>\n");
+    }
+
+    private static void send(HttpExchange exchange, byte[] content, String fileName) throws IOException {
+        exchange.getResponseHeaders().add("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        exchange.sendResponseHeaders(200, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+        exchange.close();
+    }
+
+}
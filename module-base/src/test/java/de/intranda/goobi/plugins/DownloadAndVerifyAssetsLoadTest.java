@@ -0,0 +1,362 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.goobi.beans.GoobiProperty;
+import org.goobi.production.enums.PluginReturnValue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.metadaten.MetadatenHelper;
+import de.sub.goobi.persistence.managers.MetadataManager;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import de.sub.goobi.persistence.managers.PropertyManager;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Drives run() end-to-end against an embedded HTTP server that injects latencies, server errors, truncated bodies and corrupt content. The default
+ * parameters keep the test fast enough for every build, larger soak runs can be configured with system properties, e.g.
+ * <code>mvn test -Dtest=DownloadAndVerifyAssetsLoadTest -Dloadtest.files=2000 -Dloadtest.fileSize=10485760</code>. A report with throughput, per
+ * file latency and peak heap is logged after every run, the optional limits loadtest.minThroughput (MB/s), loadtest.maxP99 (ms) and
+ * loadtest.maxHeap (MB) turn it into a regression check.
+ * <p>
+ * The latency of a file is measured from its first request until the plugin reports it as verified via the success callback, so it includes the
+ * time spent on the client, failed attempts and retries.
+ * <p>
+ * Further switches enable the optional download paths of the plugin:
+ * <ul>
+ * <li>loadtest.parallelDownloads: @max of parallelDownloads, loadtest.adaptive and loadtest.timeout set @adaptive and @timeout</li>
+ * <li>loadtest.mirrors: number of additional mirrors served by the same server</li>
+ * <li>loadtest.segmentedMinimumSize: @minimumSize of segmentedDownload in MB, loadtest.segments sets @segments. loadtest.fileSize must be at least
+ * as large for the segmented download to be used</li>
+ * <li>loadtest.acceptEncoding: value of acceptEncoding, the server compresses the files with gzip or deflate if the plugin asks for it</li>
+ * </ul>
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ MetadatenHelper.class, VariableReplacer.class, ConfigurationHelper.class, ProcessManager.class, MetadataManager.class, Helper.class,
+        PropertyManager.class })
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*", "com.sun.net.httpserver.*",
+        "sun.net.httpserver.*" })
+@Log4j2
+public class DownloadAndVerifyAssetsLoadTest extends DownloadAndVerifyAssetsTestBase {
+
+    // number of files, size of every file in bytes and latency of every response in milliseconds
+    private static final int FILES = Integer.getInteger("loadtest.files", 50);
+    private static final int FILE_SIZE = Integer.getInteger("loadtest.fileSize", 256 * 1024);
+    private static final int LATENCY = Integer.getInteger("loadtest.latency", 5);
+    // share of the files whose first request fails in the according way, they succeed on the next try
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("loadtest.errorRate", "0.05"));
+    private static final double TRUNCATED_RATE = Double.parseDouble(System.getProperty("loadtest.truncatedRate", "0.05"));
+    private static final double CORRUPT_RATE = Double.parseDouble(System.getProperty("loadtest.corruptRate", "0.05"));
+
+    // optional download paths, all of them are disabled by default
+    private static final int PARALLEL_DOWNLOADS = Integer.getInteger("loadtest.parallelDownloads", 0);
+    private static final boolean ADAPTIVE = Boolean.getBoolean("loadtest.adaptive");
+    private static final int TIMEOUT = Integer.getInteger("loadtest.timeout", 0);
+    private static final int MIRRORS = Integer.getInteger("loadtest.mirrors", 0);
+    private static final int SEGMENTED_MINIMUM_SIZE = Integer.getInteger("loadtest.segmentedMinimumSize", 0);
+    private static final int SEGMENTS = Integer.getInteger("loadtest.segments", 4);
+    private static final String ACCEPT_ENCODING = System.getProperty("loadtest.acceptEncoding");
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private Map<String, byte[]> contents = new HashMap<>();
+    private Map<String, Fault> faults = new HashMap<>();
+    private Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    // FILEID -> time of the first request of the file
+    private Map<String, Long> firstRequests = new ConcurrentHashMap<>();
+    // FILEIDs of all files the plugin reported as verified
+    private Set<String> verifiedFiles = ConcurrentHashMap.newKeySet();
+    private List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+    private enum Fault {
+        NONE,
+        ERROR,
+        TRUNCATED,
+        CORRUPT
+    }
+
+    @Test
+    public void testDownloadUnderLoad() throws Exception {
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long start = System.nanoTime();
+        PluginReturnValue result = plugin.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+
+        assertEquals(PluginReturnValue.FINISH, result);
+        Path masterFolder = getMasterFolder();
+        try (Stream<Path> files = Files.list(masterFolder)) {
+            assertEquals(FILES, files.count());
+        }
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            Path file = masterFolder.resolve(content.getKey() + ".bin");
+            assertTrue(Files.exists(file));
+            assertEquals(sha256(content.getValue()), sha256(Files.readAllBytes(file)));
+        }
+        assertEquals(FILES, verifiedFiles.size());
+
+        double megabytes = (double) FILES * FILE_SIZE / (1024 * 1024);
+        double throughput = megabytes / seconds;
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        long p50 = percentile(sorted, 50);
+        long p99 = percentile(sorted, 99);
+        long peakHeapMegabytes = peakHeap / (1024 * 1024);
+        log.info(String.format(
+                "load test: %d files of %d bytes in %.2f s, throughput %.2f MB/s (%.1f files/s), latency per file p50 %d ms / p99 %d ms, peak heap %d MB",
+                FILES, FILE_SIZE, seconds, throughput, FILES / seconds, p50, p99, peakHeapMegabytes));
+
+        if (System.getProperty("loadtest.minThroughput") != null) {
+            assertTrue("throughput " + throughput + " MB/s", throughput >= Double.parseDouble(System.getProperty("loadtest.minThroughput")));
+        }
+        if (System.getProperty("loadtest.maxP99") != null) {
+            assertTrue("p99 latency " + p99 + " ms", p99 <= Long.getLong("loadtest.maxP99"));
+        }
+        if (System.getProperty("loadtest.maxHeap") != null) {
+            assertTrue("peak heap " + peakHeapMegabytes + " MB", peakHeapMegabytes <= Long.getLong("loadtest.maxHeap"));
+        }
+    }
+
+    @Before
+    public void prepareServer() throws Exception {
+        prepareFiles();
+        startServer();
+        server.createContext("/thesis/106/file/", this::serveFile);
+        for (int i = 1; i <= MIRRORS; ++i) {
+            server.createContext("/mirror" + i + "/thesis/106/file/", this::serveFile);
+        }
+        server.createContext("/verified/", this::serveCallback);
+        writePluginConfiguration(getConfigurationElements());
+        createProcessProperties();
+    }
+
+    /**
+     * create the content of all files and decide which files fail on their first request
+     */
+    private void prepareFiles() {
+        Random random = new Random(42);
+        for (int i = 0; i < FILES; ++i) {
+            String fileId = String.valueOf(1000 + i);
+            byte[] content = new byte[FILE_SIZE];
+            random.nextBytes(content);
+            contents.put(fileId, content);
+
+            double draw = random.nextDouble();
+            Fault fault = Fault.NONE;
+            if (draw < ERROR_RATE) {
+                fault = Fault.ERROR;
+            } else if (draw < ERROR_RATE + TRUNCATED_RATE) {
+                fault = Fault.TRUNCATED;
+            } else if (draw < ERROR_RATE + TRUNCATED_RATE + CORRUPT_RATE) {
+                fault = Fault.CORRUPT;
+            }
+            faults.put(fileId, fault);
+        }
+    }
+
+    /**
+     * get the configuration of the optional download paths that are enabled by the system properties
+     */
+    private String getConfigurationElements() {
+        StringBuilder elements = new StringBuilder();
+        for (int i = 1; i <= MIRRORS; ++i) {
+            elements.append("        <downloadUrl>")
+                    .append(getServerUrl())
+                    .append("/mirror")
+                    .append(i)
+                    .append("/thesis/{meta.ThesisId}/file/{FILEID}</downloadUrl>\n");
+        }
+        if (PARALLEL_DOWNLOADS > 0) {
+            elements.append("        <parallelDownloads min=\"1\" max=\"")
+                    .append(PARALLEL_DOWNLOADS)
+                    .append("\" adaptive=\"")
+                    .append(ADAPTIVE)
+                    .append("\" timeout=\"")
+                    .append(TIMEOUT)
+                    .append("\" />\n");
+        }
+        if (SEGMENTED_MINIMUM_SIZE > 0) {
+            elements.append("        <segmentedDownload minimumSize=\"")
+                    .append(SEGMENTED_MINIMUM_SIZE)
+                    .append("\" segments=\"")
+                    .append(SEGMENTS)
+                    .append("\" />\n");
+        }
+        if (ACCEPT_ENCODING != null) {
+            elements.append("        <acceptEncoding>").append(ACCEPT_ENCODING).append("</acceptEncoding>\n");
+        }
+        elements.append("        <response type=\"success\" method=\"put\" url=\"").append(getServerUrl()).append("/verified/{FILEID}\" />\n");
+        return elements.toString();
+    }
+
+    private void serveFile(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String fileId = path.substring(path.lastIndexOf('/') + 1);
+            byte[] content = contents.get(fileId);
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            firstRequests.putIfAbsent(fileId, System.nanoTime());
+            if (LATENCY > 0) {
+                Thread.sleep(LATENCY);
+            }
+            // every fault only hits the first request of a file
+            boolean firstRequest = requestCounts.computeIfAbsent(fileId, k -> new AtomicInteger()).incrementAndGet() == 1;
+            Fault fault = firstRequest ? faults.get(fileId) : Fault.NONE;
+            if (fault == Fault.ERROR) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            if (fault == Fault.CORRUPT) {
+                content = content.clone();
+                content[content.length / 2] ^= 0xff;
+            }
+
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Content-Type", "application/octet-stream");
+            headers.add("Content-Disposition", "attachment; filename=\"" + fileId + ".bin\"");
+            headers.add("Accept-Ranges", "bytes");
+            int statusCode = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String encoding = getEncoding(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            Matcher matcher = range == null ? null : RANGE_PATTERN.matcher(range);
+            if (matcher != null && matcher.matches()) {
+                int first = Integer.parseInt(matcher.group(1));
+                int last = (int) Math.min(Long.parseLong(matcher.group(2)), content.length - 1L);
+                headers.add("Content-Range", "bytes " + first + "-" + last + "/" + content.length);
+                content = Arrays.copyOfRange(content, first, last + 1);
+                statusCode = 206;
+            } else if (encoding != null) {
+                content = encode(content, encoding);
+                headers.add("Content-Encoding", encoding);
+            }
+            exchange.sendResponseHeaders(statusCode, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, 0, fault == Fault.TRUNCATED ? content.length / 2 : content.length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // expected for truncated bodies and aborted ranges
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * record the time at which the plugin reported a file as verified
+     */
+    private void serveCallback(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String fileId = path.substring(path.lastIndexOf('/') + 1);
+            Long firstRequest = firstRequests.get(fileId);
+            if (firstRequest != null && verifiedFiles.add(fileId)) {
+                latencies.add((System.nanoTime() - firstRequest) / 1000000);
+            }
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * choose the content encoding of a response
+     *
+     * @param acceptEncoding Accept-Encoding header of the request, may be null
+     * @return gzip or deflate, or null if the content is sent as it is
+     */
+    private String getEncoding(String acceptEncoding) {
+        if (ACCEPT_ENCODING == null || acceptEncoding == null) {
+            return null;
+        }
+        List<String> accepted = Arrays.asList(acceptEncoding.toLowerCase().replace(" ", "").split(","));
+        if (accepted.contains("gzip")) {
+            return "gzip";
+        }
+        return accepted.contains("deflate") ? "deflate" : null;
+    }
+
+    private byte[] encode(byte[] content, String encoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = "gzip".equals(encoding) ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void createProcessProperties() throws Exception {
+        List<GoobiProperty> props = new ArrayList<>();
+        int id = 1;
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            props.add(createProperty(id++, "AttachmentIDSplitted", content.getKey()));
+            props.add(createProperty(id++, "AttachmentHashSplitted", sha256(content.getValue())));
+        }
+
+        process.setEigenschaften(props);
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0));
+    }
+}
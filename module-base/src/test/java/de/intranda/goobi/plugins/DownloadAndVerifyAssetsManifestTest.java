@@ -0,0 +1,158 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.goobi.beans.GoobiProperty;
+import org.goobi.production.enums.PluginReturnValue;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.metadaten.MetadatenHelper;
+import de.sub.goobi.persistence.managers.MetadataManager;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import de.sub.goobi.persistence.managers.PropertyManager;
+import io.goobi.workflow.api.connection.HttpUtils;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ MetadatenHelper.class, VariableReplacer.class, ConfigurationHelper.class, ProcessManager.class, MetadataManager.class, Helper.class,
+        HttpUtils.class, PropertyManager.class })
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*", "com.sun.net.httpserver.*",
+        "sun.net.httpserver.*" })
+public class DownloadAndVerifyAssetsManifestTest extends DownloadAndVerifyAssetsTestBase {
+
+    private static final String STATUS_PROPERTY = "AttachmentDownloadStatus";
+    // path of the files relative to the default location of the manifests
+    private static final String FOLDER = "00469418X_master/";
+
+    private byte[] content = "content of the file 107".getBytes(StandardCharsets.UTF_8);
+    private List<GoobiProperty> properties = new ArrayList<>();
+    private AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void serveFile() throws Exception {
+        properties.add(createProperty(1, "AttachmentIDSplitted", "107"));
+        properties.add(createProperty(2, "AttachmentHashSplitted", sha256(content)));
+        process.setEigenschaften(properties);
+
+        startServer();
+        server.createContext("/thesis/106/file/107", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Disposition", "attachment; filename=\"107.pdf\"");
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+            exchange.close();
+        });
+    }
+
+    @Test
+    public void testManifestsAreWrittenNextToTheFolder() throws Exception {
+        writePluginConfiguration("        <manifest algorithms=\"sha256 md5\" />\n");
+
+        assertEquals(PluginReturnValue.FINISH, runPlugin());
+        assertEquals(List.of(sha256(content) + "  " + FOLDER + "107.pdf"), readManifest("sha256"));
+        assertEquals(List.of(md5(content) + "  " + FOLDER + "107.pdf"), readManifest("md5"));
+        // nothing but the file itself ends up in the target folder
+        try (Stream<Path> files = Files.list(getMasterFolder())) {
+            assertEquals(List.of(getMasterFolder().resolve("107.pdf")), files.toList());
+        }
+    }
+
+    @Test
+    public void testExistingManifestIsMergedAndPruned() throws Exception {
+        byte[] otherContent = "content of the file 106".getBytes(StandardCharsets.UTF_8);
+        Files.write(getMasterFolder().resolve("106.pdf"), otherContent);
+        // 105.pdf was deleted since the manifest was written
+        writeManifest("sha256", sha256(otherContent) + "  " + FOLDER + "106.pdf", "0123  " + FOLDER + "105.pdf");
+        writePluginConfiguration("        <manifest />\n");
+
+        assertEquals(PluginReturnValue.FINISH, runPlugin());
+        assertEquals(List.of(sha256(otherContent) + "  " + FOLDER + "106.pdf", sha256(content) + "  " + FOLDER + "107.pdf"),
+                readManifest("sha256"));
+    }
+
+    @Test
+    public void testCustomFormatIsReadBack() throws Exception {
+        byte[] otherContent = "content of the file 106".getBytes(StandardCharsets.UTF_8);
+        Files.write(getMasterFolder().resolve("106.pdf"), otherContent);
+        // characters of regular expressions must match literally
+        writeManifest("sha256", "SHA256 (" + FOLDER + "106.pdf) = " + sha256(otherContent));
+        writePluginConfiguration("        <manifest format=\"SHA256 ({FILE}) = {CHECKSUM}\" />\n");
+
+        assertEquals(PluginReturnValue.FINISH, runPlugin());
+        assertEquals(List.of("SHA256 (" + FOLDER + "106.pdf) = " + sha256(otherContent), "SHA256 (" + FOLDER + "107.pdf) = " + sha256(content)),
+                readManifest("sha256"));
+    }
+
+    @Test
+    public void testSkippedFileIsHashedForMissingAlgorithms() throws Exception {
+        Files.write(getMasterFolder().resolve("107.pdf"), content);
+        // the status of an earlier run without manifests has no further checksums
+        JSONObject status = new JSONObject();
+        status.put("fileId", "107");
+        status.put("hash", sha256(content));
+        status.put("file", "107.pdf");
+        status.put("size", content.length);
+        properties.add(createProperty(3, STATUS_PROPERTY, status.toString()));
+        process.setEigenschaften(properties);
+        writePluginConfiguration("        <statusProperty>" + STATUS_PROPERTY + "</statusProperty>\n"
+                + "        <manifest algorithms=\"sha256 md5\" />\n");
+
+        assertEquals(PluginReturnValue.FINISH, runPlugin());
+        assertEquals(0, requests.get());
+        assertEquals(List.of(sha256(content) + "  " + FOLDER + "107.pdf"), readManifest("sha256"));
+        assertEquals(List.of(md5(content) + "  " + FOLDER + "107.pdf"), readManifest("md5"));
+    }
+
+    private PluginReturnValue runPlugin() {
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        return plugin.run();
+    }
+
+    /**
+     * get the default location of the manifest of the master folder
+     *
+     * @param algorithm checksum algorithm of the manifest
+     * @return path of the manifest next to the master folder
+     */
+    private Path getManifest(String algorithm) throws Exception {
+        return getMasterFolder().resolveSibling("manifest-00469418X_master-" + algorithm + ".txt");
+    }
+
+    private List<String> readManifest(String algorithm) throws Exception {
+        return Files.readAllLines(getManifest(algorithm), StandardCharsets.UTF_8);
+    }
+
+    private void writeManifest(String algorithm, String... lines) throws Exception {
+        Files.write(getManifest(algorithm), List.of(lines), StandardCharsets.UTF_8);
+    }
+
+    private static String md5(byte[] content) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+}
@@ -1,37 +1,35 @@
 package de.intranda.goobi.plugins;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.regex.MatchResult;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
-import org.easymock.EasyMock;
-import org.easymock.IAnswer;
 import org.goobi.beans.GoobiProperty;
-import org.goobi.beans.Process;
 import org.goobi.beans.Processproperty;
-import org.goobi.beans.Project;
-import org.goobi.beans.Ruleset;
-import org.goobi.beans.Step;
-import org.goobi.beans.User;
 import org.goobi.production.enums.PluginReturnValue;
+import org.json.JSONObject;
 import org.junit.Before;
-import org.junit.BeforeClass;
 import org.junit.Ignore;
-import org.junit.Rule;
 import org.junit.Test;
-import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
-import org.powermock.api.easymock.PowerMock;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -39,45 +37,20 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.Helper;
 import de.sub.goobi.helper.VariableReplacer;
-import de.sub.goobi.helper.enums.StepStatus;
 import de.sub.goobi.metadaten.MetadatenHelper;
 import de.sub.goobi.persistence.managers.MetadataManager;
 import de.sub.goobi.persistence.managers.ProcessManager;
 import de.sub.goobi.persistence.managers.PropertyManager;
 import io.goobi.workflow.api.connection.HttpUtils;
-import ugh.dl.Fileformat;
-import ugh.dl.Prefs;
-import ugh.fileformats.mets.MetsMods;
 
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({ MetadatenHelper.class, VariableReplacer.class, ConfigurationHelper.class, ProcessManager.class, MetadataManager.class, Helper.class,
         HttpUtils.class, PropertyManager.class })
-@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
-public class DownloadAndVerifyAssetsPluginTest {
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*", "com.sun.net.httpserver.*",
+        "sun.net.httpserver.*" })
+public class DownloadAndVerifyAssetsPluginTest extends DownloadAndVerifyAssetsTestBase {
 
-    private static String resourcesFolder;
-
-    @Rule
-    public TemporaryFolder folder = new TemporaryFolder();
-
-    private File processDirectory;
-    private File metadataDirectory;
-    private Process process;
-    private Step step;
-    private Prefs prefs;
-
-    @BeforeClass
-    public static void setUpClass() throws Exception {
-        resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
-
-        if (!Files.exists(Paths.get(resourcesFolder))) {
-            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
-        }
-
-        String log4jFile = resourcesFolder + "log4j2.xml"; // for junit tests in eclipse
-
-        System.setProperty("log4j.configurationFile", log4jFile);
-    }
+    private static final String STATUS_PROPERTY = "AttachmentDownloadStatus";
 
     @Test
     public void testConstructor() throws Exception {
@@ -101,176 +74,256 @@ public class DownloadAndVerifyAssetsPluginTest {
         assertEquals(PluginReturnValue.FINISH, plugin.run());
     }
 
-    @Before
-    public void setUp() throws Exception {
-        metadataDirectory = folder.newFolder("metadata");
-        processDirectory = new File(metadataDirectory + File.separator + "1");
-        processDirectory.mkdirs();
-        String metadataDirectoryName = metadataDirectory.getAbsolutePath() + File.separator;
-        Path metaSource = Paths.get(resourcesFolder, "meta.xml");
-        Path metaTarget = Paths.get(processDirectory.getAbsolutePath(), "meta.xml");
-        Files.copy(metaSource, metaTarget);
-
-        PowerMock.mockStatic(ConfigurationHelper.class);
-        ConfigurationHelper configurationHelper = EasyMock.createMock(ConfigurationHelper.class);
-        EasyMock.expect(ConfigurationHelper.getInstance()).andReturn(configurationHelper).anyTimes();
-        EasyMock.expect(configurationHelper.getMetsEditorLockingTime()).andReturn(1800000l).anyTimes();
-        EasyMock.expect(configurationHelper.isAllowWhitespacesInFolder()).andReturn(false).anyTimes();
-        EasyMock.expect(configurationHelper.useS3()).andReturn(false).anyTimes();
-        EasyMock.expect(configurationHelper.isUseProxy()).andReturn(false).anyTimes();
-        EasyMock.expect(configurationHelper.isUseMasterDirectory()).andReturn(false).anyTimes();
-        EasyMock.expect(configurationHelper.isCreateMasterDirectory()).andReturn(false).anyTimes();
-
-        EasyMock.expect(configurationHelper.getGoobiContentServerTimeOut()).andReturn(60000).anyTimes();
-        EasyMock.expect(configurationHelper.getMetadataFolder()).andReturn(metadataDirectoryName).anyTimes();
-        EasyMock.expect(configurationHelper.getRulesetFolder()).andReturn(resourcesFolder).anyTimes();
-        EasyMock.expect(configurationHelper.getProcessImagesMainDirectoryName()).andReturn("00469418X_media").anyTimes();
-
-        EasyMock.expect(configurationHelper.getConfigurationFolder()).andReturn(resourcesFolder).anyTimes();
-        EasyMock.expect(configurationHelper.getGoobiFolder()).andReturn(resourcesFolder).anyTimes();
-        EasyMock.expect(configurationHelper.getScriptsFolder()).andReturn(resourcesFolder).anyTimes();
-
-        EasyMock.expect(configurationHelper.getNumberOfMetaBackups()).andReturn(0).anyTimes();
-        EasyMock.replay(configurationHelper);
-
-        PowerMock.mockStatic(Helper.class);
-        Helper.addMessageToProcessJournal(EasyMock.anyInt(), EasyMock.anyObject(), EasyMock.anyString());
-        Helper.addMessageToProcessJournal(EasyMock.anyInt(), EasyMock.anyObject(), EasyMock.anyString());
-        Helper.addMessageToProcessJournal(EasyMock.anyInt(), EasyMock.anyObject(), EasyMock.anyString());
-
-        PowerMock.mockStatic(VariableReplacer.class);
-        EasyMock.expect(VariableReplacer.simpleReplace(EasyMock.anyString(), EasyMock.anyObject()))
-                .andAnswer(
-                        new IAnswer<String>() {
-                            @Override
-                            public String answer() throws Throwable {
-                                String val = (String) EasyMock.getCurrentArguments()[0];
-                                return val.replace("{meta.ThesisId}", "106");
-                            }
-                        })
-                .anyTimes();
-
-        Iterable<MatchResult> results = EasyMock.createMock(Iterable.class);
-        Iterator<MatchResult> iter = EasyMock.createMock(Iterator.class);
-        EasyMock.expect(results.iterator()).andReturn(iter).anyTimes();
-        EasyMock.expect(iter.hasNext()).andReturn(false).anyTimes();
-
-        EasyMock.expect(VariableReplacer.findRegexMatches(EasyMock.anyString(), EasyMock.anyString())).andReturn(results).anyTimes();
-        EasyMock.replay(results);
-        EasyMock.replay(iter);
-
-        PowerMock.replay(VariableReplacer.class);
-        prefs = new Prefs();
-        prefs.loadPrefs(resourcesFolder + "ruleset.xml");
-        Fileformat ff = new MetsMods(prefs);
-        ff.read(metaTarget.toString());
-
-        PowerMock.mockStatic(MetadatenHelper.class);
-        EasyMock.expect(MetadatenHelper.getMetaFileType(EasyMock.anyString())).andReturn("mets").anyTimes();
-        EasyMock.expect(MetadatenHelper.getFileformatByName(EasyMock.anyString(), EasyMock.anyObject())).andReturn(ff).anyTimes();
-        EasyMock.expect(MetadatenHelper.getMetadataOfFileformat(EasyMock.anyObject(), EasyMock.anyBoolean()))
-                .andReturn(Collections.emptyMap())
-                .anyTimes();
-        PowerMock.replay(MetadatenHelper.class);
-
-        PowerMock.mockStatic(MetadataManager.class);
-        MetadataManager.updateMetadata(1, Collections.emptyMap());
-
-        MetadataManager.updateMetadata(1, Collections.emptyMap());
-
-        MetadataManager.updateJSONMetadata(1, Collections.emptyMap());
-
-        PowerMock.mockStatic(PropertyManager.class);
-        EasyMock.expect(PropertyManager.getProcessPropertiesForProcess(EasyMock.anyInt())).andReturn(Collections.emptyList()).anyTimes();
-        PropertyManager.saveProcessProperty(EasyMock.anyObject());
-        PropertyManager.saveProcessProperty(EasyMock.anyObject());
-        PropertyManager.saveProcessProperty(EasyMock.anyObject());
-        PropertyManager.saveProcessProperty(EasyMock.anyObject());
-        PropertyManager.saveProcessProperty(EasyMock.anyObject());
-
-        PowerMock.replay(PropertyManager.class);
-        PowerMock.replay(MetadataManager.class);
-        PowerMock.replay(ConfigurationHelper.class);
-        PowerMock.replay(Helper.class);
-
-        process = getProcess();
-
-        Ruleset ruleset = PowerMock.createMock(Ruleset.class);
-        ruleset.setTitel("ruleset");
-        ruleset.setDatei("ruleset.xml");
-        EasyMock.expect(ruleset.getDatei()).andReturn("ruleset.xml").anyTimes();
-        process.setRegelsatz(ruleset);
-        EasyMock.expect(ruleset.getPreferences()).andReturn(prefs).anyTimes();
-        PowerMock.replay(ruleset);
-        createProcessProperties();
+    @Test
+    public void testFileWithMatchingStatusIsSkipped() throws Exception {
+        byte[] content = "content of the file 107".getBytes(StandardCharsets.UTF_8);
+        Files.write(getMasterFolder().resolve("107.pdf"), content);
+        createStatusProperties(content, sha256(content), content.length);
+        AtomicInteger requests = serveFile(content);
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertEquals(0, requests.get());
+        assertFalse(savedProperties.hasCaptured());
     }
 
-    private void createProcessProperties() {
-        List<GoobiProperty> props = new ArrayList<>();
-        {
-            Processproperty property = new Processproperty();
-            property.setId(1);
-            property.setProzess(process);
-            property.setTitel("AttachmentIDSplitted");
-            property.setWert("107");
-            props.add(property);
+    @Test
+    public void testFileWithDifferentSizeIsDownloadedAgain() throws Exception {
+        byte[] content = "content of the file 107".getBytes(StandardCharsets.UTF_8);
+        Path file = getMasterFolder().resolve("107.pdf");
+        Files.write(file, "content".getBytes(StandardCharsets.UTF_8));
+        createStatusProperties(content, sha256(content), content.length);
+        AtomicInteger requests = serveFile(content);
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertEquals(1, requests.get());
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void testExistingStatusPropertyIsUpdated() throws Exception {
+        byte[] oldContent = "old content of the file 107".getBytes(StandardCharsets.UTF_8);
+        byte[] content = "content of the file 107".getBytes(StandardCharsets.UTF_8);
+        Files.write(getMasterFolder().resolve("107.pdf"), oldContent);
+        Processproperty statusProperty = createStatusProperties(content, sha256(oldContent), oldContent.length);
+        AtomicInteger requests = serveFile(content);
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertEquals(1, requests.get());
+
+        List<GoobiProperty> statusProperties = new ArrayList<>();
+        for (GoobiProperty property : process.getEigenschaftenList()) {
+            if (STATUS_PROPERTY.equals(property.getTitel())) {
+                statusProperties.add(property);
+            }
         }
+        assertEquals(1, statusProperties.size());
+        assertSame(statusProperty, statusProperties.get(0));
+        JSONObject status = new JSONObject(statusProperty.getWert());
+        assertEquals(sha256(content), status.getString("hash"));
+        assertEquals(content.length, status.getLong("size"));
+        assertEquals(1, savedProperties.getValues().size());
+        assertSame(statusProperty, savedProperties.getValue());
+    }
+
+    @Test
+    public void testProgressIsRegisteredWhileDownloading() throws Exception {
+        byte[] content = "content of the file 107".getBytes(StandardCharsets.UTF_8);
+        createStatusProperties(content, sha256(content), content.length);
+        List<DownloadProgress> progressDuringDownload = new ArrayList<>();
+        startServer();
+        server.createContext("/thesis/106/file/107", exchange -> {
+            progressDuringDownload.add(DownloadProgress.getProgress(process.getId()));
+            exchange.getResponseHeaders().add("Content-Disposition", "attachment; filename=\"107.pdf\"");
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+            exchange.close();
+        });
+        writePluginConfiguration("        <statusProperty>" + STATUS_PROPERTY + "</statusProperty>\n");
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertEquals(1, progressDuringDownload.size());
+        assertNotNull(progressDuringDownload.get(0));
+        assertEquals(1, progressDuringDownload.get(0).getSnapshot().getFilesDone());
+        // the progress does not outlive the step
+        assertNull(DownloadProgress.getProgress(process.getId()));
+    }
 
-        {
-            Processproperty property = new Processproperty();
-            property.setId(1);
-            property.setProzess(process);
-            property.setTitel("AttachmentHashSplitted");
-            property.setWert("1eae07b41cb3323ab370d3ddd78de440ffe6d581d1d3736c086b8949d24b35da1");
-            props.add(property);
+    @Test
+    public void testGzipContentIsStoredDecoded() throws Exception {
+        byte[] content = "content of the file 107, compressed with gzip".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(encoded)) {
+            out.write(content);
         }
+        Set<String> acceptEncodings = serveEncodedFile(content, encoded.toByteArray(), "gzip", "        <acceptEncoding>gzip</acceptEncoding>\n");
 
-        process.setEigenschaften(props);
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        // the checksum of the decoded file is expected
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertArrayEquals(content, Files.readAllBytes(getMasterFolder().resolve("107.pdf")));
+        assertEquals(Set.of("gzip"), acceptEncodings);
+    }
+
+    @Test
+    public void testDeflateContentIsStoredDecoded() throws Exception {
+        byte[] content = "content of the file 107, compressed with deflate".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(encoded)) {
+            out.write(content);
+        }
+        Set<String> acceptEncodings = serveEncodedFile(content, encoded.toByteArray(), "deflate", "");
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertArrayEquals(content, Files.readAllBytes(getMasterFolder().resolve("107.pdf")));
+        // the default value
+        assertEquals(Set.of("gzip, deflate"), acceptEncodings);
     }
 
-    public Process getProcess() {
-        Project project = new Project();
-        project.setTitel("SampleProject");
-
-        Process process = new Process();
-        process.setTitel("00469418X");
-        process.setProjekt(project);
-        process.setId(1);
-        List<Step> steps = new ArrayList<>();
-        step = new Step();
-        step.setReihenfolge(1);
-        step.setProzess(process);
-        step.setTitel("test step");
-        step.setBearbeitungsstatusEnum(StepStatus.OPEN);
-        User user = new User();
-        user.setVorname("Firstname");
-        user.setNachname("Lastname");
-        step.setBearbeitungsbenutzer(user);
-        steps.add(step);
-
-        process.setSchritte(steps);
-
-        try {
-            createProcessDirectory(processDirectory);
-        } catch (IOException e) {
+    @Test
+    public void testUnsupportedContentEncodingFails() throws Exception {
+        byte[] content = "content of the file 107".getBytes(StandardCharsets.UTF_8);
+        serveEncodedFile(content, content, "br", "");
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.ERROR, plugin.run());
+        // neither the file nor a temporary file is kept
+        try (Stream<Path> files = Files.list(getMasterFolder())) {
+            assertEquals(0, files.count());
         }
+    }
+
+    @Test
+    public void testLastExtensionOfDispositionIsUsed() throws Exception {
+        byte[] content = "content of the file 107".getBytes(StandardCharsets.UTF_8);
+        createStatusProperties(content, sha256(content), content.length);
+        serveFile(content, "thesis.final.pdf");
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertArrayEquals(content, Files.readAllBytes(getMasterFolder().resolve("107.pdf")));
+    }
+
+    @Test
+    public void testImplausibleDispositionExtensionIsSniffed() throws Exception {
+        byte[] content = "%PDF-1.4 content of the file 107".getBytes(StandardCharsets.UTF_8);
+        createStatusProperties(content, sha256(content), content.length);
+        serveFile(content, "thesis.final version");
+
+        DownloadAndVerifyAssetsStepPlugin plugin = new DownloadAndVerifyAssetsStepPlugin();
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertArrayEquals(content, Files.readAllBytes(getMasterFolder().resolve("107.pdf")));
+    }
+
+    @Before
+    public void createProcessProperties() {
+        List<GoobiProperty> props = new ArrayList<>();
+        props.add(createProperty(1, "AttachmentIDSplitted", "107"));
+        props.add(createProperty(1, "AttachmentHashSplitted", "1eae07b41cb3323ab370d3ddd78de440ffe6d581d1d3736c086b8949d24b35da1"));
+        process.setEigenschaften(props);
+    }
 
-        return process;
+    /**
+     * create the properties of the file 107 together with its status property
+     *
+     * @param content expected content of the file
+     * @param statusHash checksum saved in the status property
+     * @param statusSize size saved in the status property
+     * @return the status property
+     */
+    private Processproperty createStatusProperties(byte[] content, String statusHash, long statusSize) throws Exception {
+        JSONObject status = new JSONObject();
+        status.put("fileId", "107");
+        status.put("hash", statusHash);
+        status.put("file", "107.pdf");
+        status.put("size", statusSize);
+        status.put("timestamp", "2024-01-01T00:00:00Z");
+        Processproperty statusProperty = createProperty(3, STATUS_PROPERTY, status.toString());
+
+        List<GoobiProperty> props = new ArrayList<>();
+        props.add(createProperty(1, "AttachmentIDSplitted", "107"));
+        props.add(createProperty(2, "AttachmentHashSplitted", sha256(content)));
+        props.add(statusProperty);
+        process.setEigenschaften(props);
+        return statusProperty;
     }
 
-    private void createProcessDirectory(File processDirectory) throws IOException {
+    /**
+     * serve the file 107 from the embedded server and configure the plugin to download it with a status property
+     *
+     * @param content content of the file
+     * @return number of requests for the file
+     */
+    private AtomicInteger serveFile(byte[] content) throws IOException {
+        return serveFile(content, "107.pdf");
+    }
 
-        // image folder
-        File imageDirectory = new File(processDirectory.getAbsolutePath(), "images");
-        imageDirectory.mkdir();
-        // master folder
-        File masterDirectory = new File(imageDirectory.getAbsolutePath(), "00469418X_master");
-        masterDirectory.mkdir();
+    /**
+     * serve the file 107 from the embedded server and configure the plugin to download it with a status property
+     *
+     * @param content content of the file
+     * @param fileName file name sent in the Content-Disposition header
+     * @return number of requests for the file
+     */
+    private AtomicInteger serveFile(byte[] content, String fileName) throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        startServer();
+        server.createContext("/thesis/106/file/107", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+            exchange.close();
+        });
+        writePluginConfiguration("        <statusProperty>" + STATUS_PROPERTY + "</statusProperty>\n");
+        return requests;
+    }
 
-        // media folder
-        File mediaDirectory = new File(imageDirectory.getAbsolutePath(), "00469418X_media");
-        mediaDirectory.mkdir();
+    /**
+     * serve the file 107 from the embedded server with the given content encoding
+     *
+     * @param content decoded content of the file, its checksum is expected by the plugin
+     * @param encoded encoded content that is sent
+     * @param encoding value of the Content-Encoding header
+     * @param elements further elements of the plugin configuration
+     * @return all values of the Accept-Encoding header sent by the plugin
+     */
+    private Set<String> serveEncodedFile(byte[] content, byte[] encoded, String encoding, String elements) throws Exception {
+        List<GoobiProperty> props = new ArrayList<>();
+        props.add(createProperty(1, "AttachmentIDSplitted", "107"));
+        props.add(createProperty(2, "AttachmentHashSplitted", sha256(content)));
+        process.setEigenschaften(props);
 
-        // TODO add some file
+        Set<String> acceptEncodings = ConcurrentHashMap.newKeySet();
+        startServer();
+        server.createContext("/thesis/106/file/107", exchange -> {
+            acceptEncodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")));
+            exchange.getResponseHeaders().add("Content-Disposition", "attachment; filename=\"107.pdf\"");
+            exchange.getResponseHeaders().add("Content-Encoding", encoding);
+            exchange.sendResponseHeaders(200, encoded.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(encoded);
+            }
+            exchange.close();
+        });
+        writePluginConfiguration(elements);
+        return acceptEncodings;
     }
 }
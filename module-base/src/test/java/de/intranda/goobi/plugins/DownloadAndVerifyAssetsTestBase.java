@@ -0,0 +1,276 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.regex.MatchResult;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.goobi.beans.Process;
+import org.goobi.beans.Processproperty;
+import org.goobi.beans.Project;
+import org.goobi.beans.Ruleset;
+import org.goobi.beans.Step;
+import org.goobi.beans.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.api.easymock.PowerMock;
+
+import com.sun.net.httpserver.HttpServer;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.helper.enums.StepStatus;
+import de.sub.goobi.metadaten.MetadatenHelper;
+import de.sub.goobi.persistence.managers.MetadataManager;
+import de.sub.goobi.persistence.managers.PropertyManager;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Common fixture of the tests that run the plugin: a process with its metadata and image folders, the mocked Goobi environment and an optional
+ * embedded HTTP server. The subclasses must prepare the same classes for the test as {@link DownloadAndVerifyAssetsPluginTest}.
+ */
+public abstract class DownloadAndVerifyAssetsTestBase {
+
+    protected static final String PLUGIN_CONFIGURATION = "plugin_intranda_step_download_and_verify_assets.xml";
+
+    protected static String resourcesFolder;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected File processDirectory;
+    protected File metadataDirectory;
+    protected File configurationDirectory;
+    protected Process process;
+    protected Step step;
+    protected Prefs prefs;
+
+    protected HttpServer server;
+    // all process properties saved by the plugin
+    protected Capture<Processproperty> savedProperties = Capture.newInstance(CaptureType.ALL);
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+
+        String log4jFile = resourcesFolder + "log4j2.xml"; // for junit tests in eclipse
+
+        System.setProperty("log4j.configurationFile", log4jFile);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        metadataDirectory = folder.newFolder("metadata");
+        configurationDirectory = folder.newFolder("config");
+        processDirectory = new File(metadataDirectory + File.separator + "1");
+        processDirectory.mkdirs();
+        String metadataDirectoryName = metadataDirectory.getAbsolutePath() + File.separator;
+        Path metaSource = Paths.get(resourcesFolder, "meta.xml");
+        Path metaTarget = Paths.get(processDirectory.getAbsolutePath(), "meta.xml");
+        Files.copy(metaSource, metaTarget);
+        // the tests may replace the configuration with their own one
+        Files.copy(Paths.get(resourcesFolder, PLUGIN_CONFIGURATION), configurationDirectory.toPath().resolve(PLUGIN_CONFIGURATION));
+
+        PowerMock.mockStatic(ConfigurationHelper.class);
+        ConfigurationHelper configurationHelper = EasyMock.createMock(ConfigurationHelper.class);
+        EasyMock.expect(ConfigurationHelper.getInstance()).andReturn(configurationHelper).anyTimes();
+        EasyMock.expect(configurationHelper.getMetsEditorLockingTime()).andReturn(1800000l).anyTimes();
+        EasyMock.expect(configurationHelper.isAllowWhitespacesInFolder()).andReturn(false).anyTimes();
+        EasyMock.expect(configurationHelper.useS3()).andReturn(false).anyTimes();
+        EasyMock.expect(configurationHelper.isUseProxy()).andReturn(false).anyTimes();
+        EasyMock.expect(configurationHelper.isUseMasterDirectory()).andReturn(false).anyTimes();
+        EasyMock.expect(configurationHelper.isCreateMasterDirectory()).andReturn(false).anyTimes();
+
+        EasyMock.expect(configurationHelper.getGoobiContentServerTimeOut()).andReturn(60000).anyTimes();
+        EasyMock.expect(configurationHelper.getMetadataFolder()).andReturn(metadataDirectoryName).anyTimes();
+        EasyMock.expect(configurationHelper.getRulesetFolder()).andReturn(resourcesFolder).anyTimes();
+        EasyMock.expect(configurationHelper.getProcessImagesMainDirectoryName()).andReturn("00469418X_media").anyTimes();
+
+        EasyMock.expect(configurationHelper.getConfigurationFolder()).andReturn(configurationDirectory.getAbsolutePath() + File.separator).anyTimes();
+        EasyMock.expect(configurationHelper.getGoobiFolder()).andReturn(resourcesFolder).anyTimes();
+        EasyMock.expect(configurationHelper.getScriptsFolder()).andReturn(resourcesFolder).anyTimes();
+
+        EasyMock.expect(configurationHelper.getNumberOfMetaBackups()).andReturn(0).anyTimes();
+        EasyMock.replay(configurationHelper);
+
+        PowerMock.mockStatic(Helper.class);
+        Helper.addMessageToProcessJournal(EasyMock.anyInt(), EasyMock.anyObject(), EasyMock.anyString());
+        EasyMock.expectLastCall().anyTimes();
+
+        PowerMock.mockStatic(VariableReplacer.class);
+        EasyMock.expect(VariableReplacer.simpleReplace(EasyMock.anyString(), EasyMock.anyObject()))
+                .andAnswer(
+                        new IAnswer<String>() {
+                            @Override
+                            public String answer() throws Throwable {
+                                String val = (String) EasyMock.getCurrentArguments()[0];
+                                return val.replace("{meta.ThesisId}", "106");
+                            }
+                        })
+                .anyTimes();
+
+        Iterable<MatchResult> results = EasyMock.createMock(Iterable.class);
+        Iterator<MatchResult> iter = EasyMock.createMock(Iterator.class);
+        EasyMock.expect(results.iterator()).andReturn(iter).anyTimes();
+        EasyMock.expect(iter.hasNext()).andReturn(false).anyTimes();
+
+        EasyMock.expect(VariableReplacer.findRegexMatches(EasyMock.anyString(), EasyMock.anyString())).andReturn(results).anyTimes();
+        EasyMock.replay(results);
+        EasyMock.replay(iter);
+
+        PowerMock.replay(VariableReplacer.class);
+        prefs = new Prefs();
+        prefs.loadPrefs(resourcesFolder + "ruleset.xml");
+        Fileformat ff = new MetsMods(prefs);
+        ff.read(metaTarget.toString());
+
+        PowerMock.mockStatic(MetadatenHelper.class);
+        EasyMock.expect(MetadatenHelper.getMetaFileType(EasyMock.anyString())).andReturn("mets").anyTimes();
+        EasyMock.expect(MetadatenHelper.getFileformatByName(EasyMock.anyString(), EasyMock.anyObject())).andReturn(ff).anyTimes();
+        EasyMock.expect(MetadatenHelper.getMetadataOfFileformat(EasyMock.anyObject(), EasyMock.anyBoolean()))
+                .andReturn(Collections.emptyMap())
+                .anyTimes();
+        PowerMock.replay(MetadatenHelper.class);
+
+        PowerMock.mockStatic(MetadataManager.class);
+        MetadataManager.updateMetadata(1, Collections.emptyMap());
+        EasyMock.expectLastCall().anyTimes();
+        MetadataManager.updateJSONMetadata(1, Collections.emptyMap());
+        EasyMock.expectLastCall().anyTimes();
+
+        PowerMock.mockStatic(PropertyManager.class);
+        EasyMock.expect(PropertyManager.getProcessPropertiesForProcess(EasyMock.anyInt())).andReturn(Collections.emptyList()).anyTimes();
+        PropertyManager.saveProcessProperty(EasyMock.capture(savedProperties));
+        EasyMock.expectLastCall().anyTimes();
+
+        PowerMock.replay(PropertyManager.class);
+        PowerMock.replay(MetadataManager.class);
+        PowerMock.replay(ConfigurationHelper.class);
+        PowerMock.replay(Helper.class);
+
+        process = getProcess();
+
+        Ruleset ruleset = PowerMock.createMock(Ruleset.class);
+        ruleset.setTitel("ruleset");
+        ruleset.setDatei("ruleset.xml");
+        EasyMock.expect(ruleset.getDatei()).andReturn("ruleset.xml").anyTimes();
+        process.setRegelsatz(ruleset);
+        EasyMock.expect(ruleset.getPreferences()).andReturn(prefs).anyTimes();
+        PowerMock.replay(ruleset);
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * start the embedded HTTP server, the handlers are added by the tests
+     */
+    protected void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    protected String getServerUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * replace the plugin configuration by a minimal one that downloads the files from the embedded server into the master folder
+     *
+     * @param elements further elements of the <config> block
+     */
+    protected void writePluginConfiguration(String elements) throws IOException {
+        String config = "<config_plugin>\n"
+                + "    <config>\n"
+                + "        <project>*</project>\n"
+                + "        <step>*</step>\n"
+                + "        <maxTryTimes>3</maxTryTimes>\n"
+                + "        <downloadUrl>" + getServerUrl() + "/thesis/{meta.ThesisId}/file/{FILEID}</downloadUrl>\n"
+                + "        <fileNameProperty urlProperty=\"AttachmentIDSplitted\" hashProperty=\"AttachmentHashSplitted\" folder=\"master\" />\n"
+                + elements
+                + "    </config>\n"
+                + "</config_plugin>\n";
+        Files.writeString(configurationDirectory.toPath().resolve(PLUGIN_CONFIGURATION), config, StandardCharsets.UTF_8);
+    }
+
+    protected Processproperty createProperty(int id, String title, String value) {
+        Processproperty property = new Processproperty();
+        property.setId(id);
+        property.setProzess(process);
+        property.setTitel(title);
+        property.setWert(value);
+        return property;
+    }
+
+    protected Path getMasterFolder() throws Exception {
+        return Paths.get(process.getConfiguredImageFolder("master"));
+    }
+
+    protected static String sha256(byte[] content) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    public Process getProcess() {
+        Project project = new Project();
+        project.setTitel("SampleProject");
+
+        Process process = new Process();
+        process.setTitel("00469418X");
+        process.setProjekt(project);
+        process.setId(1);
+        List<Step> steps = new ArrayList<>();
+        step = new Step();
+        step.setReihenfolge(1);
+        step.setProzess(process);
+        step.setTitel("test step");
+        step.setBearbeitungsstatusEnum(StepStatus.OPEN);
+        User user = new User();
+        user.setVorname("Firstname");
+        user.setNachname("Lastname");
+        step.setBearbeitungsbenutzer(user);
+        steps.add(step);
+
+        process.setSchritte(steps);
+
+        // image folders
+        File imageDirectory = new File(processDirectory.getAbsolutePath(), "images");
+        imageDirectory.mkdir();
+        new File(imageDirectory.getAbsolutePath(), "00469418X_master").mkdir();
+        new File(imageDirectory.getAbsolutePath(), "00469418X_media").mkdir();
+
+        return process;
+    }
+}
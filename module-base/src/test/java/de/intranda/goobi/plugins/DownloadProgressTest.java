@@ -0,0 +1,92 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class DownloadProgressTest {
+
+    private AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void testRateAndRemainingTime() {
+        DownloadProgress progress = new DownloadProgress(4, clock::get);
+        DownloadProgress.Transfer transfer = progress.startTransfer(1000);
+        transfer.addBytes(1000);
+        transfer.complete();
+        progress.fileDone();
+
+        clock.set(1000);
+        DownloadProgress.Snapshot snapshot = progress.getSnapshot();
+        assertEquals(1, snapshot.getFilesDone());
+        assertEquals(1000, snapshot.getBytesDone());
+        assertEquals(1000, snapshot.getBytesPerSecond());
+        // three more files of the same size
+        assertEquals(3, snapshot.getRemainingSeconds());
+
+        progress.startTransfer(1000).addBytes(500);
+        clock.set(2000);
+        snapshot = progress.getSnapshot();
+        // the new sample of 500 bytes per second is weighted with the previous rate
+        assertEquals(750, snapshot.getBytesPerSecond());
+        // 2500 bytes remaining, 500 of them from the running transfer
+        assertEquals(3, snapshot.getRemainingSeconds());
+        assertEquals(2000, snapshot.getElapsedMillis());
+    }
+
+    @Test
+    public void testRateBeforeFirstSample() {
+        DownloadProgress progress = new DownloadProgress(2, clock::get);
+        progress.startTransfer(-1).addBytes(300);
+
+        clock.set(500);
+        DownloadProgress.Snapshot snapshot = progress.getSnapshot();
+        // the average since the start is used until a full sample period has passed
+        assertEquals(600, snapshot.getBytesPerSecond());
+        // no file size known yet
+        assertEquals(-1, snapshot.getRemainingSeconds());
+    }
+
+    @Test
+    public void testAbortedTransferIsTakenBack() {
+        DownloadProgress progress = new DownloadProgress(2, clock::get);
+        DownloadProgress.Transfer transfer = progress.startTransfer(1000);
+        transfer.addBytes(400);
+        transfer.abort();
+
+        DownloadProgress.Snapshot snapshot = progress.getSnapshot();
+        assertEquals(0, snapshot.getBytesDone());
+        assertEquals(0, snapshot.getBytesExpected());
+
+        // a retry is counted only once
+        transfer = progress.startTransfer(1000);
+        transfer.addBytes(1000);
+        transfer.complete();
+        progress.fileDone();
+        snapshot = progress.getSnapshot();
+        assertEquals(1, snapshot.getFilesDone());
+        assertEquals(1000, snapshot.getBytesDone());
+        assertEquals(1000, snapshot.getBytesExpected());
+    }
+
+    @Test
+    public void testRegisteredProgressCanBeLookedUp() {
+        DownloadProgress progress = new DownloadProgress(1);
+        progress.register(42);
+        assertSame(progress, DownloadProgress.getProgress(42));
+
+        // a newer run of the same process is not removed by the previous one
+        DownloadProgress next = new DownloadProgress(1);
+        next.register(42);
+        progress.unregister(42);
+        assertSame(next, DownloadProgress.getProgress(42));
+
+        next.unregister(42);
+        assertNull(DownloadProgress.getProgress(42));
+    }
+
+}
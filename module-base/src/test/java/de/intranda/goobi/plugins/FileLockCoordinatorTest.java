@@ -0,0 +1,199 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileLockCoordinatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileLockCoordinator coordinator;
+
+    @Before
+    public void setUp() throws IOException {
+        coordinator = new FileLockCoordinator(folder.getRoot().toPath().resolve("leases"));
+    }
+
+    @Test
+    public void testLeaseIsExclusive() throws IOException {
+        assertTrue(coordinator.tryAcquire("file-1", "node-a", 60000));
+        assertFalse(coordinator.tryAcquire("file-1", "node-b", 60000));
+        assertTrue(coordinator.tryAcquire("file-2", "node-b", 60000));
+    }
+
+    @Test
+    public void testLeaseCanBeRenewedByOwner() throws IOException {
+        assertTrue(coordinator.tryAcquire("file-1", "node-a", 60000));
+        assertTrue(coordinator.tryAcquire("file-1", "node-a", 60000));
+        assertFalse(coordinator.tryAcquire("file-1", "node-b", 60000));
+    }
+
+    @Test
+    public void testReleasedLeaseCanBeAcquired() throws IOException {
+        assertTrue(coordinator.tryAcquire("file-1", "node-a", 60000));
+        // releasing a lease of another owner has no effect
+        coordinator.release("file-1", "node-b");
+        assertFalse(coordinator.tryAcquire("file-1", "node-b", 60000));
+        coordinator.release("file-1", "node-a");
+        assertTrue(coordinator.tryAcquire("file-1", "node-b", 60000));
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() throws IOException {
+        assertTrue(coordinator.tryAcquire("file-1", "node-a", -1000));
+        assertTrue(coordinator.tryAcquire("file-1", "node-b", 60000));
+        assertFalse(coordinator.tryAcquire("file-1", "node-a", 60000));
+        // only the lock file itself is left
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("leases"))) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testRenewalAndTakeOverHaveOneWinner() throws Exception {
+        Path leaseFolder = folder.getRoot().toPath().resolve("leases");
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 200; ++round) {
+                String key = "file-" + round;
+                assertTrue(coordinator.tryAcquire(key, "node-a", -1000));
+                // the expired owner renews its lease while another node takes it over
+                Future<Boolean> renewed = executor.submit(tryAcquireTogether(barrier, key, "node-a"));
+                Future<Boolean> takenOver = executor.submit(tryAcquireTogether(barrier, key, "node-b"));
+                assertTrue("round " + round, renewed.get() ^ takenOver.get());
+                String owner = Files.readAllLines(leaseFolder.resolve(key + ".lock")).get(0);
+                assertEquals("round " + round, renewed.get() ? "node-a" : "node-b", owner);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // no files were left behind besides the lock files
+        try (Stream<Path> files = Files.list(leaseFolder)) {
+            assertEquals(200, files.count());
+        }
+    }
+
+    @Test
+    public void testValidLeaseIsNeverLostWhileRenewed() throws Exception {
+        Path leaseFolder = folder.getRoot().toPath().resolve("leases");
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertTrue(coordinator.tryAcquire("file-1", "node-a", 60000));
+            for (int round = 0; round < 200; ++round) {
+                Future<Boolean> renewed = executor.submit(() -> {
+                    barrier.await();
+                    return coordinator.renew("file-1", "node-a", 60000);
+                });
+                Future<Boolean> acquired = executor.submit(tryAcquireTogether(barrier, "file-1", "node-b"));
+                assertTrue("round " + round, renewed.get());
+                assertFalse("round " + round, acquired.get());
+            }
+            assertEquals("node-a", Files.readAllLines(leaseFolder.resolve("file-1.lock")).get(0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRenewalDoesNotCreateLease() throws IOException {
+        assertFalse(coordinator.renew("file-1", "node-a", 60000));
+        assertTrue(coordinator.tryAcquire("file-1", "node-a", 60000));
+        coordinator.release("file-1", "node-a");
+        assertFalse(coordinator.renew("file-1", "node-a", 60000));
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("leases").resolve("file-1.lock")));
+        // the lease of another node is not renewed either
+        assertTrue(coordinator.tryAcquire("file-1", "node-b", 60000));
+        assertFalse(coordinator.renew("file-1", "node-a", 60000));
+    }
+
+    @Test
+    public void testExpiredLeaseCanBeRenewedUntilTakenOver() throws IOException {
+        assertTrue(coordinator.tryAcquire("file-1", "node-a", -1000));
+        assertTrue(coordinator.renew("file-1", "node-a", -1000));
+        assertTrue(coordinator.tryAcquire("file-1", "node-b", 60000));
+        assertFalse(coordinator.renew("file-1", "node-a", 60000));
+    }
+
+    @Test
+    public void testLeaseTakenOverIsMarkedAsLost() throws Exception {
+        DownloadCoordination coordination = new DownloadCoordination(coordinator, 300, 0, 0);
+        try {
+            DownloadCoordination.Lease lease = coordination.acquireFileLease("file-1");
+            // another node takes over the lease, e.g. after this node did not renew it in time
+            Files.delete(folder.getRoot().toPath().resolve("leases").resolve("file-1.lock"));
+            assertTrue(coordinator.tryAcquire("file-1", "node-b", 60000));
+            for (int i = 0; i < 50 && !lease.isLost(); ++i) {
+                Thread.sleep(100);
+            }
+            assertTrue(lease.isLost());
+            coordination.release(lease);
+            // the lease of the other node stays untouched
+            assertFalse(coordinator.tryAcquire("file-1", "node-c", 60000));
+        } finally {
+            coordination.close();
+        }
+    }
+
+    @Test
+    public void testReleasedLeaseIsNotRenewed() throws Exception {
+        Path lockFile = folder.getRoot().toPath().resolve("leases").resolve("file-1.lock");
+        DownloadCoordination coordination = new DownloadCoordination(coordinator, 300, 0, 0);
+        try {
+            for (int round = 0; round < 20; ++round) {
+                coordination.release(coordination.acquireFileLease("file-1"));
+                // give the renewal a chance to run, it runs every 100 ms
+                Thread.sleep(30);
+                assertFalse("round " + round, Files.exists(lockFile));
+            }
+        } finally {
+            coordination.close();
+        }
+    }
+
+    @Test
+    public void testSourceSlotsAreLimited() throws IOException {
+        DownloadCoordination first = new DownloadCoordination(coordinator, 60000, 1, 0);
+        DownloadCoordination second = new DownloadCoordination(coordinator, 60000, 1, 0);
+        try {
+            DownloadCoordination.Lease slot = first.acquireSourceSlot();
+            try {
+                second.acquireSourceSlot();
+                throw new AssertionError("the second node must not get a slot");
+            } catch (IOException e) {
+                // expected, the only slot is taken
+            }
+            first.release(slot);
+            assertTrue(second.acquireSourceSlot() != null);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    private Callable<Boolean> tryAcquireTogether(CyclicBarrier barrier, String key, String owner) {
+        return () -> {
+            barrier.await();
+            return coordinator.tryAcquire(key, owner, 60000);
+        };
+    }
+
+}
@@ -0,0 +1,75 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MirrorPoolTest {
+
+    private static final List<String> TEMPLATES = List.of("http://primary/{FILEID}", "http://mirror1/{FILEID}", "http://mirror2/{FILEID}");
+
+    @Test
+    public void testMirrorsAreOrderedByLatency() {
+        MirrorPool pool = new MirrorPool(TEMPLATES, 60000);
+        List<MirrorPool.Mirror> mirrors = pool.getOrderedMirrors();
+        assertEquals(TEMPLATES, getTemplates(mirrors));
+        assertEquals("http://mirror1/107", mirrors.get(1).getUrl("107"));
+
+        pool.reportSuccess(mirrors.get(0), 300);
+        pool.reportSuccess(mirrors.get(1), 100);
+        // mirrors that were not measured yet are tried first
+        assertEquals(List.of(TEMPLATES.get(2), TEMPLATES.get(1), TEMPLATES.get(0)), getTemplates(pool.getOrderedMirrors()));
+        pool.reportSuccess(mirrors.get(2), 200);
+        assertEquals(List.of(TEMPLATES.get(1), TEMPLATES.get(2), TEMPLATES.get(0)), getTemplates(pool.getOrderedMirrors()));
+    }
+
+    @Test
+    public void testFailedMirrorCoolsDown() {
+        MirrorPool pool = new MirrorPool(TEMPLATES, 60000);
+        List<MirrorPool.Mirror> mirrors = pool.getOrderedMirrors();
+        for (MirrorPool.Mirror mirror : mirrors) {
+            pool.reportSuccess(mirror, 100);
+        }
+        pool.reportSuccess(mirrors.get(0), 10);
+        assertEquals(TEMPLATES.get(0), pool.getOrderedMirrors().get(0).getUrlTemplate());
+
+        // the fastest mirror is only used as a last resort while it cools down
+        pool.reportFailure(mirrors.get(0));
+        assertEquals(TEMPLATES.get(0), pool.getOrderedMirrors().get(2).getUrlTemplate());
+
+        // a success ends the cooldown
+        pool.reportSuccess(mirrors.get(0), 10);
+        assertEquals(TEMPLATES.get(0), pool.getOrderedMirrors().get(0).getUrlTemplate());
+    }
+
+    @Test
+    public void testCooldownIsOverWithoutFurtherFailures() {
+        MirrorPool pool = new MirrorPool(TEMPLATES, 0);
+        List<MirrorPool.Mirror> mirrors = pool.getOrderedMirrors();
+        pool.reportFailure(mirrors.get(0));
+        assertEquals(TEMPLATES, getTemplates(pool.getOrderedMirrors()));
+    }
+
+    @Test
+    public void testCooldownDoublesWithEveryFailure() {
+        MirrorPool pool = new MirrorPool(TEMPLATES, 60000);
+        List<MirrorPool.Mirror> mirrors = pool.getOrderedMirrors();
+        // the primary fails twice, so it stays unavailable longer than the first mirror, which failed once afterwards
+        pool.reportFailure(mirrors.get(0));
+        pool.reportFailure(mirrors.get(0));
+        pool.reportFailure(mirrors.get(1));
+        assertEquals(List.of(TEMPLATES.get(2), TEMPLATES.get(1), TEMPLATES.get(0)), getTemplates(pool.getOrderedMirrors()));
+    }
+
+    private static List<String> getTemplates(List<MirrorPool.Mirror> mirrors) {
+        List<String> templates = new ArrayList<>();
+        for (MirrorPool.Mirror mirror : mirrors) {
+            templates.add(mirror.getUrlTemplate());
+        }
+        return templates;
+    }
+
+}
@@ -0,0 +1,42 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MultiDigestTest {
+
+    @Test
+    public void testAllChecksumsInOnePass() throws IOException {
+        MultiDigest digest = new MultiDigest(Arrays.asList("md5", "SHA512"));
+        digest.update(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8)));
+        Map<String, String> checksums = digest.getChecksums();
+        assertEquals(3, checksums.size());
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", checksums.get("sha256"));
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", checksums.get("md5"));
+        assertEquals("ddaf35a193617abacc417349ae20413112e6fa4e89a97ea20a9eeee64b55d39a2192992a274fc1a836ba3c23a3feebbd454d4423643ce80e2a9ac94fa54ca49f",
+                checksums.get("sha512"));
+    }
+
+    @Test
+    public void testSha256IsAlwaysCalculated() {
+        MultiDigest digest = new MultiDigest(Arrays.asList());
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", digest.getChecksums().get(MultiDigest.SHA256));
+    }
+
+    @Test
+    public void testSupportedAlgorithms() {
+        assertTrue(MultiDigest.isSupported("sha1"));
+        assertTrue(MultiDigest.isSupported("sha512"));
+        assertFalse(MultiDigest.isSupported("crc32"));
+    }
+
+}
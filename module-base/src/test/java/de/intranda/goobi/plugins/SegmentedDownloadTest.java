@@ -0,0 +1,199 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class SegmentedDownloadTest {
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private byte[] content = new byte[100000];
+    // segment requests of /slow/ running at the same time
+    private AtomicInteger runningRequests = new AtomicInteger();
+    private AtomicInteger maxRunningRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/good/", this::serveRange);
+        server.createContext("/slow/", exchange -> {
+            maxRunningRequests.accumulateAndGet(runningRequests.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(200);
+                serveRange(exchange);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                runningRequests.decrementAndGet();
+            }
+        });
+        server.createContext("/failing/", exchange -> {
+            // the server drops the connection after the error, the client must not try to reuse it for the next mirror
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.createContext("/stalled/", exchange -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSegmentsAreWrittenIntoPlace() throws IOException {
+        MirrorPool pool = createPool("good");
+        DownloadProgress progress = new DownloadProgress(1);
+        Path destination = folder.getRoot().toPath().resolve("107.bin");
+
+        new SegmentedDownload(null, pool, 4, RequestConfig.DEFAULT, new DownloadSlots(new AdaptiveLimiter("test", 1, 4, false), null))
+                .download("107", content.length, destination, progress.startTransfer(content.length));
+        assertArrayEquals(content, Files.readAllBytes(destination));
+        assertEquals(content.length, progress.getSnapshot().getBytesDone());
+    }
+
+    @Test
+    public void testSegmentsAreDownloadedInParallel() throws IOException {
+        MirrorPool pool = createPool("slow");
+        // only one file at a time, the segments still have a budget of their own
+        DownloadSlots slots = new DownloadSlots(new AdaptiveLimiter("test", 1, 1, false), null);
+        Path destination = folder.getRoot().toPath().resolve("107.bin");
+
+        new SegmentedDownload(null, pool, 4, RequestConfig.DEFAULT, slots)
+                .download("107", content.length, destination, new DownloadProgress(1).startTransfer(content.length));
+        assertArrayEquals(content, Files.readAllBytes(destination));
+        assertEquals(4, maxRunningRequests.get());
+    }
+
+    @Test
+    public void testFailingMirrorIsSkipped() throws IOException, InterruptedException {
+        MirrorPool pool = createPool("failing", "good");
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 8, true);
+        // let the limit grow once, so that the overload can halve it again
+        limiter.acquire();
+        limiter.release(true);
+        assertEquals(2, limiter.getLimit());
+        Path destination = folder.getRoot().toPath().resolve("107.bin");
+
+        new SegmentedDownload(null, pool, 4, RequestConfig.DEFAULT, new DownloadSlots(limiter, null))
+                .download("107", content.length, destination, new DownloadProgress(1).startTransfer(content.length));
+        assertArrayEquals(content, Files.readAllBytes(destination));
+        // the 503 responses put the mirror aside and reduce the parallel downloads
+        assertEquals("http://localhost:" + server.getAddress().getPort() + "/good/{FILEID}", pool.getOrderedMirrors().get(0).getUrlTemplate());
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test(timeout = 8000)
+    public void testStalledSegmentTimesOut() throws IOException {
+        MirrorPool pool = createPool("stalled", "good");
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(500).setSocketTimeout(500).build();
+        Path destination = folder.getRoot().toPath().resolve("107.bin");
+
+        new SegmentedDownload(null, pool, 2, requestConfig, new DownloadSlots(new AdaptiveLimiter("test", 1, 2, false), null))
+                .download("107", content.length, destination, new DownloadProgress(1).startTransfer(content.length));
+        assertArrayEquals(content, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void testGetTotalSize() throws IOException {
+        assertEquals(1000, SegmentedDownload.getTotalSize(createPartialResponse("bytes 0-99/1000"), 100));
+        // fewer bytes than requested are the whole file
+        assertEquals(50, SegmentedDownload.getTotalSize(createPartialResponse("bytes 0-49/*"), 100));
+    }
+
+    @Test(expected = IOException.class)
+    public void testGetTotalSizeFailsWithoutTotal() throws IOException {
+        SegmentedDownload.getTotalSize(createPartialResponse("bytes 0-99/*"), 100);
+    }
+
+    @Test(expected = IOException.class)
+    public void testGetTotalSizeFailsForOtherRange() throws IOException {
+        SegmentedDownload.getTotalSize(createPartialResponse("bytes 10-99/1000"), 100);
+    }
+
+    @Test(expected = IOException.class)
+    public void testGetTotalSizeFailsWithoutContentRange() throws IOException {
+        SegmentedDownload.getTotalSize(createPartialResponse(null), 100);
+    }
+
+    private MirrorPool createPool(String... paths) {
+        String[] templates = new String[paths.length];
+        for (int i = 0; i < paths.length; ++i) {
+            templates[i] = "http://localhost:" + server.getAddress().getPort() + "/" + paths[i] + "/{FILEID}";
+        }
+        return new MirrorPool(List.of(templates), 60000);
+    }
+
+    private static HttpResponse createPartialResponse(String contentRange) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 206, "Partial Content");
+        if (contentRange != null) {
+            response.addHeader("Content-Range", contentRange);
+        }
+        return response;
+    }
+
+    private void serveRange(HttpExchange exchange) throws IOException {
+        try {
+            Matcher matcher = RANGE_PATTERN.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+            if (!matcher.matches()) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            int first = Integer.parseInt(matcher.group(1));
+            int last = Math.min(Integer.parseInt(matcher.group(2)), content.length - 1);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + content.length);
+            exchange.sendResponseHeaders(206, last + 1L - first);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(Arrays.copyOfRange(content, first, last + 1));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+}